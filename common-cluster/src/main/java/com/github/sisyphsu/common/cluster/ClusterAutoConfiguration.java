@@ -3,6 +3,8 @@ package com.github.sisyphsu.common.cluster;
 import com.github.sisyphsu.common.cluster.cid.ClusterID;
 import com.github.sisyphsu.common.cluster.cid.ClusterIDImpl;
 import com.github.sisyphsu.common.cluster.cid.ClusterIDProperties;
+import com.github.sisyphsu.common.cluster.cid.FileClusterIDImpl;
+import com.github.sisyphsu.common.cluster.cid.RedisClusterIDImpl;
 import com.github.sisyphsu.common.cluster.dlock.DistributedLock;
 import com.github.sisyphsu.common.cluster.dlock.DistributedLockProperties;
 import lombok.extern.slf4j.Slf4j;
@@ -15,6 +17,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
@@ -70,14 +73,32 @@ public class ClusterAutoConfiguration {
         return cf;
     }
 
-    @Bean
+    @Bean(destroyMethod = "close")
+    @Autowired
+    @ConditionalOnProperty(prefix = "spring.cluster", name = "local-dir")
+    @ConditionalOnMissingBean(ClusterID.class)
+    public ClusterID localClusterID(ClusterIDProperties props) {
+        return new FileClusterIDImpl(props.getLocalDir(), props.getBitNum());
+    }
+
+    @Bean(destroyMethod = "close")
     @Autowired
     @ConditionalOnBean(CuratorFramework.class)
+    @ConditionalOnProperty(prefix = "spring.zookeeper", name = "addr")
     @ConditionalOnMissingBean(ClusterID.class)
     public ClusterID clusterID(CuratorFramework framework, ClusterIDProperties props) {
         return new ClusterIDImpl(framework, props);
     }
 
+    @Bean(destroyMethod = "close")
+    @Autowired
+    @ConditionalOnBean(StringRedisTemplate.class)
+    @ConditionalOnProperty(prefix = "spring.cluster", name = "redis-enabled", havingValue = "true")
+    @ConditionalOnMissingBean(ClusterID.class)
+    public ClusterID redisClusterID(StringRedisTemplate template, ClusterIDProperties props) {
+        return new RedisClusterIDImpl(template, props);
+    }
+
     @Bean
     @Autowired
     @ConditionalOnBean({StringRedisTemplate.class})
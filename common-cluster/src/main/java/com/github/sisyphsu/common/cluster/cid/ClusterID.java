@@ -31,4 +31,17 @@ public interface ClusterID {
      */
     ClusterIDStatus getStatus();
 
+    /**
+     * Get the current ClusterID's lease without blocking, which contains status, value and epoch.
+     * The epoch will increase after every change, so the caller could check whether its cached lease
+     * is still current by one plain read.
+     * The default implementation doesn't track changes, its epoch is always 0.
+     *
+     * @return lease
+     */
+    default ClusterIDLease getLease() {
+        ClusterIDStatus status = this.getStatus();
+        return new ClusterIDLease(status, status == ClusterIDStatus.NONE ? -1 : this.get(), 0);
+    }
+
 }
@@ -0,0 +1,21 @@
+package com.github.sisyphsu.common.cluster.cid;
+
+/**
+ * ClusterID's heartbeat mode
+ *
+ * @author sulin
+ * @since 2019-05-08 11:26:40
+ */
+public enum ClusterIDHeartbeat {
+
+    /**
+     * Flush the node's timestamp every `flushIntervalMs`
+     */
+    TIMESTAMP,
+    /**
+     * Check liveness by the ephemeral lock node of ZK's session, only flush the node's timestamp
+     * on acquire, release and every `sessionFlushIntervalMs`.
+     */
+    SESSION
+
+}
@@ -2,22 +2,33 @@ package com.github.sisyphsu.common.cluster.cid;
 
 import com.github.sisyphsu.common.cluster.utils.ScheduleUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransactionBridge;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
-import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.Semaphore;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * ClusterID implementation.
@@ -27,31 +38,41 @@ import java.util.stream.Collectors;
  * @since 2019-03-22 12:08:36
  */
 @Slf4j
-public class ClusterIDImpl extends Thread implements ClusterID {
+public class ClusterIDImpl extends Thread implements ClusterID, AutoCloseable {
+
+    /**
+     * The ephemeral lock node's name. The old versions lock by InterProcessMutex's children like `_c_xxx-lock-0000000001`,
+     * which are sorted by the suffix after `lock-`, so this node sorts first and the old mutex can't acquire with it.
+     */
+    private static final String LOCK_NODE = "lock-";
 
     private final CuratorFramework curator;
     private final ClusterIDProperties props;
 
     /**
-     * ClusterID's status
+     * ClusterID's lease, include status and value
+     */
+    private final ClusterIDLeaseHolder lease = new ClusterIDLeaseHolder();
+    /**
+     * ZK's ephemeral lock path, use it to occupy one specified id
      */
-    private ClusterIDStatus status = ClusterIDStatus.NONE;
+    private volatile String lockPath;
     /**
-     * Status's semaphore, will be released when status changed
+     * The last time of flushing node's timestamp
      */
-    private Semaphore statusSema = new Semaphore(0);
+    private long flushTime;
     /**
-     * The current ClusterID value, -1 means invalid
+     * ZK's subtree cache of all nodeIDs, kept up to date by watches
      */
-    private int nodeID = -1;
+    private volatile TreeCache nodeCache;
     /**
-     * ZK's node lock, use it to occupy one specified id
+     * Will be counted down after nodeCache finished its initial load
      */
-    private InterProcessMutex nodeLock;
+    private final CountDownLatch nodeCacheReady = new CountDownLatch(1);
     /**
      * Whether closed or not
      */
-    private boolean closed = false;
+    private volatile boolean closed = false;
 
     /**
      * Initialize and start a daemon thread to occupy nodelock
@@ -78,162 +99,451 @@ public class ClusterIDImpl extends Thread implements ClusterID {
 
     @Override
     public int get() {
-        while (status == ClusterIDStatus.NONE && !closed) {
+        ClusterIDLease curr = null;
+        while (curr == null) {
             try {
-                statusSema.acquire();
+                curr = this.awaitLease(Long.MAX_VALUE);
             } catch (InterruptedException ignored) {
             }
         }
         if (closed) {
             throw new IllegalStateException("ClusterID is closed.");
         }
-        return this.nodeID;
+        return curr.getNodeID();
     }
 
     @Override
     public ClusterIDStatus getStatus() {
-        return this.status;
+        return this.lease.get().getStatus();
+    }
+
+    @Override
+    public ClusterIDLease getLease() {
+        return this.lease.get();
+    }
+
+    /**
+     * Wait until the ClusterID is ready, or timeout, or closed.
+     *
+     * @param timeoutMs max wait time
+     * @return the current lease, its status is NONE if timeout or closed
+     * @throws InterruptedException interrupted
+     */
+    public ClusterIDLease awaitLease(long timeoutMs) throws InterruptedException {
+        return this.lease.await(timeoutMs, () -> closed);
+    }
+
+    /**
+     * Close this ClusterID, release the lock and mark the node as free right away,
+     * so other members could take over it without waiting for session's expiration.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.interrupt();
+        try {
+            this.join(3000);
+        } catch (InterruptedException ignored) {
+        }
+        int nodeID = this.lease.get().getNodeID();
+        if (nodeID >= 0) {
+            try {
+                this.releaseNode(nodeID);
+            } catch (Exception e) {
+                log.warn("release nodeID[{}] failed: {}", nodeID, e.getLocalizedMessage());
+            }
+        }
+        this.updateStatus(ClusterIDStatus.NONE, -1);
+    }
+
+    /**
+     * List all nodeIDs and their status from the local cache, no matter it's locked or not.
+     * The result is a read-only snapshot, it will be empty if the cache isn't ready yet.
+     *
+     * @return all known nodes
+     */
+    public List<ClusterIDNode> listNodes() {
+        if (this.nodeCache == null || this.nodeCacheReady.getCount() > 0) {
+            return Collections.emptyList();
+        }
+        List<ClusterIDNode> result = new ArrayList<>();
+        if (props.getShardBitNum() <= 0) {
+            this.collectNodes(props.getPath(), 0, result);
+        } else {
+            Map<String, ChildData> shards = this.nodeCache.getCurrentChildren(props.getPath());
+            for (String shard : shards == null ? Collections.<String>emptySet() : shards.keySet()) {
+                if (!NumberUtils.isDigits(shard)) {
+                    log.warn("invalid shard: {}", shard);
+                    continue;
+                }
+                int prefix = NumberUtils.toInt(shard) << props.getShardBitNum();
+                this.collectNodes(props.getPath() + "/" + shard, prefix, result);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    // collect all nodes under the specified parent path from nodeCache
+    private void collectNodes(String parent, int prefix, List<ClusterIDNode> result) {
+        Map<String, ChildData> children = this.nodeCache.getCurrentChildren(parent);
+        if (children == null) {
+            return;
+        }
+        for (Map.Entry<String, ChildData> entry : children.entrySet()) {
+            String id = entry.getKey();
+            long timestamp = decodeTimestamp(entry.getValue().getData());
+            if (!NumberUtils.isDigits(id) || timestamp < 0) {
+                log.warn("invalid node: {}", id);
+                continue;
+            }
+            int nodeID = prefix | NumberUtils.toInt(id);
+            long owner = 0;
+            Map<String, ChildData> locks = this.nodeCache.getCurrentChildren(parent + "/" + id);
+            if (!CollectionUtils.isEmpty(locks)) {
+                owner = locks.values().iterator().next().getStat().getEphemeralOwner();
+            }
+            result.add(new ClusterIDNode(nodeID, timestamp, !CollectionUtils.isEmpty(locks), owner));
+        }
     }
 
     @Override
     public void run() {
         ConnectionStateListener listener = (client, newState) -> {
-            if (newState == ConnectionState.LOST) {
-                this.updateStatus(ClusterIDStatus.UNLOCK, nodeID);
+            ClusterIDLease curr = this.lease.get();
+            if (newState == ConnectionState.LOST && curr.getStatus() == ClusterIDStatus.LOCK) {
+                this.updateStatus(ClusterIDStatus.UNLOCK, curr.getNodeID());
             }
         };
         this.curator.getConnectionStateListenable().addListener(listener);
         while (!this.closed) {
-            switch (status) {
+            ClusterIDLease curr = this.lease.get();
+            int nodeID = curr.getNodeID();
+            switch (curr.getStatus()) {
                 case NONE:
                     try {
-                        Integer nodeID = this.allocateNodeID();
-                        if (nodeID == null) {
+                        Integer newID = this.allocateNodeID();
+                        if (newID == null) {
                             log.warn("No available nodeID for {}, retry later", props.getPath());
                         } else {
-                            this.flushTimestamp(nodeID); // flush timestamp before confirm nodeId
-                            this.updateStatus(ClusterIDStatus.LOCK, nodeID); // alloc new id
+                            this.saveStickyID(newID); // SESSION mode's heartbeat may skip it for a long time
+                            this.updateStatus(ClusterIDStatus.LOCK, newID); // alloc new id
                         }
                     } catch (Exception e) {
-                        log.error("Allocate ClusterID failed.", e);
+                        this.logFailure("Allocate ClusterID failed.", e);
                     }
                     ScheduleUtils.sleep(1000);
                     break;
                 case LOCK:
                     try {
-                        this.flushTimestamp(nodeID);
+                        this.heartbeat(nodeID);
                     } catch (Exception e) {
-                        log.error("flush node's time failed.", e);
+                        this.logFailure("flush node's time failed.", e);
                     }
-                    ScheduleUtils.sleep(20000);
+                    ScheduleUtils.sleep(props.getFlushIntervalMs());
                     break;
                 case UNLOCK:
                     try {
-                        if (this.tryLockNode(nodeID)) {
+                        if (this.relockNode(nodeID)) {
                             log.debug("relock the old nodeID[{}] after reconnection.", nodeID);
+                            this.saveStickyID(nodeID);
                             this.updateStatus(ClusterIDStatus.LOCK, nodeID);
                         } else {
                             log.warn("relock the old nodeID[{}] failed! there will be some risks in the past.", nodeID);
                             this.updateStatus(ClusterIDStatus.NONE, -1);
                         }
                     } catch (Exception e) {
-                        log.error("relock the old nodeID failed.", e);
+                        this.logFailure("relock the old nodeID failed.", e);
                     }
                     ScheduleUtils.sleep(5000);
                     break;
             }
         }
         this.curator.getConnectionStateListenable().removeListener(listener);
+        if (this.nodeCache != null) {
+            this.nodeCache.close();
+        }
+    }
+
+    // log the failure of daemon thread, the interruption by close() is expected
+    private void logFailure(String message, Exception e) {
+        if (this.closed) {
+            log.debug("{} ClusterID was closed: {}", message, e.getLocalizedMessage());
+        } else {
+            log.error(message, e);
+        }
     }
 
     // allocate an new avaliable nodeID
     private Integer allocateNodeID() throws Exception {
-        List<ClusterIDNode> nodes = this.listNodes();
-        Integer nodeID = null;
-        int maxID = 1 << props.getBitNum();
-        if (nodes.size() < maxID) {
-            Set<Integer> nodeIds = nodes.stream().map(ClusterIDNode::getId).collect(Collectors.toSet());
-            for (int i = 0; i < maxID; i++) {
-                if (!nodeIds.contains(i)) {
-                    log.debug("take over an new nodeID: {}", i);
-                    nodeID = i;
-                    break;
-                }
+        if (!this.startNodeCache()) {
+            log.debug("nodeCache isn't ready, skip allocation.");
+            return null;
+        }
+        this.releaseNodeLock();
+        // try the nodeID held before restart at first
+        Integer stickyID = this.loadStickyID();
+        if (stickyID != null && this.tryStickyNode(stickyID)) {
+            log.debug("take over the sticky nodeID: {}", stickyID);
+            return stickyID;
+        }
+        // probe from a random seed, so concurrent starters rarely collide on the same nodeID
+        ClusterIDIndex index = new ClusterIDIndex(1 << props.getBitNum(), this.listNodes());
+        int seed = ThreadLocalRandom.current().nextInt(1 << props.getBitNum());
+        List<Integer> candidates = index.probeFree(seed, props.getProbeNum());
+        if (candidates.isEmpty()) {
+            candidates = index.coldest(props.getProbeNum());
+            Collections.shuffle(candidates);
+        }
+        if (candidates.isEmpty()) {
+            log.warn("no available nodeID");
+            return null;
+        }
+        for (Integer nodeID : candidates) {
+            String path = this.nodePath(nodeID);
+            ChildData data = this.nodeCache.getCurrentData(path);
+            if (this.tryLockNode(nodeID, data == null ? null : data.getStat())) {
+                log.debug("take over nodeID: {}", nodeID);
+                return nodeID;
             }
-        } else {
-            nodes.removeIf(node -> node.isLocked() || node.getId() >= maxID);
-            if (nodes.isEmpty()) {
-                log.warn("no available nodeID");
+        }
+        log.debug("lock the nodeID failed.");
+        return null;
+    }
+
+    // try lock the sticky nodeID if it's valid and not locked by others
+    private boolean tryStickyNode(int nodeID) throws Exception {
+        if (nodeID < 0 || nodeID >= 1 << props.getBitNum()) {
+            return false;
+        }
+        String path = this.nodePath(nodeID);
+        if (!CollectionUtils.isEmpty(this.nodeCache.getCurrentChildren(path))) {
+            log.debug("the sticky nodeID[{}] was locked by others.", nodeID);
+            return false;
+        }
+        ChildData data = this.nodeCache.getCurrentData(path);
+        return this.tryLockNode(nodeID, data == null ? null : data.getStat());
+    }
+
+    // load the nodeID held before restart from stickyFile, null means none
+    private Integer loadStickyID() {
+        if (StringUtils.isEmpty(props.getStickyFile())) {
+            return null;
+        }
+        Path file = Paths.get(props.getStickyFile());
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            String[] parts = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().split(":");
+            if (!NumberUtils.isDigits(parts[0])) {
+                log.warn("invalid stickyFile: {}", file);
                 return null;
             }
-            Long minTimestamp = nodes.stream().map(ClusterIDNode::getTimestamp).min(Long::compareTo).get();
-            for (ClusterIDNode node : nodes) {
-                if (node.getTimestamp() == minTimestamp) {
-                    log.debug("take over an old nodeID: {}", node.getId());
-                    nodeID = node.getId();
-                    break;
-                }
+            log.debug("load sticky nodeID: {}", Arrays.toString(parts));
+            return NumberUtils.toInt(parts[0]);
+        } catch (IOException e) {
+            log.warn("read stickyFile failed: {}", e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    // save the current nodeID and timestamp into stickyFile, like `12:1556950000000`
+    private void saveStickyID(int nodeID) {
+        if (StringUtils.isEmpty(props.getStickyFile())) {
+            return;
+        }
+        Path file = Paths.get(props.getStickyFile());
+        Path tmp = Paths.get(props.getStickyFile() + ".tmp");
+        String content = nodeID + ":" + System.currentTimeMillis();
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
             }
+            Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("write stickyFile failed: {}", e.getLocalizedMessage());
         }
-        if (nodeID != null && !tryLockNode(nodeID)) {
-            log.debug("lock the nodeID failed.");
-            nodeID = null;
+    }
+
+    // relock the specified nodeID after reconnection, the old lock may still be alive
+    private boolean relockNode(int nodeID) throws Exception {
+        String path = this.nodePath(nodeID);
+        Stat lockStat = curator.checkExists().forPath(ZKPaths.makePath(path, LOCK_NODE));
+        if (lockStat != null) {
+            return lockStat.getEphemeralOwner() == this.sessionId();
         }
-        return nodeID;
+        return this.tryLockNode(nodeID, curator.checkExists().forPath(path));
     }
 
-    // try lock the specified nodeID
-    private boolean tryLockNode(int nodeID) throws Exception {
-        if (this.nodeLock != null) {
-            try {
-                this.nodeLock.release();
-            } catch (Exception e) {
-                log.error("release old nodeLock failed.", e.getLocalizedMessage());
+    // try lock the specified nodeID in one transaction, which also flush its timestamp.
+    private boolean tryLockNode(int nodeID, Stat stat) throws Exception {
+        String path = this.nodePath(nodeID);
+        byte[] timestamp = this.encodeTimestamp(System.currentTimeMillis());
+        CuratorTransactionBridge bridge;
+        if (stat == null) {
+            this.ensureParent(path);
+            bridge = curator.inTransaction().create().withMode(CreateMode.PERSISTENT).forPath(path, timestamp);
+        } else {
+            bridge = curator.inTransaction().setData().withVersion(stat.getVersion()).forPath(path, timestamp);
+        }
+        String lockPath = ZKPaths.makePath(path, LOCK_NODE);
+        try {
+            bridge.and().create().withMode(CreateMode.EPHEMERAL).forPath(lockPath).and().commit();
+        } catch (KeeperException.NodeExistsException | KeeperException.BadVersionException | KeeperException.NoNodeException e) {
+            log.debug("lock nodeID[{}] failed: {}", nodeID, e.code());
+            return false;
+        }
+        // any other child is the old version's InterProcessMutex, which doesn't conflict with the transaction
+        if (curator.getChildren().forPath(path).size() > 1) {
+            log.debug("nodeID[{}] was locked by the old version, give up.", nodeID);
+            curator.delete().forPath(lockPath);
+            return false;
+        }
+        this.lockPath = lockPath;
+        this.flushTime = System.currentTimeMillis();
+        return true;
+    }
+
+    // release the old lock if it's still hold by the current session
+    private void releaseNodeLock() {
+        if (this.lockPath == null) {
+            return;
+        }
+        try {
+            Stat stat = curator.checkExists().forPath(lockPath);
+            if (stat != null && stat.getEphemeralOwner() == this.sessionId()) {
+                curator.delete().withVersion(stat.getVersion()).forPath(lockPath);
             }
+        } catch (Exception e) {
+            log.error("release old nodeLock failed: {}", e.getLocalizedMessage());
         }
-        this.nodeLock = new InterProcessMutex(curator, props.getPath() + "/" + nodeID);
-        return this.nodeLock.acquire(1, TimeUnit.SECONDS);
+        this.lockPath = null;
     }
 
-    // query all used nodeID, no matter it's locked or not.
-    private List<ClusterIDNode> listNodes() throws Exception {
-        if (curator.checkExists().forPath(props.getPath()) == null) {
-            curator.create().creatingParentsIfNeeded().forPath(props.getPath());
+    // release the lock of specified nodeID and reset its timestamp, so it will be the coldest one
+    private void releaseNode(int nodeID) throws Exception {
+        String path = this.nodePath(nodeID);
+        String lockPath = ZKPaths.makePath(path, LOCK_NODE);
+        Stat stat = curator.checkExists().forPath(lockPath);
+        if (stat == null || stat.getEphemeralOwner() != this.sessionId()) {
+            log.debug("nodeID[{}] isn't locked by the current session, skip release.", nodeID);
+            return;
         }
-        List<ClusterIDNode> result = new ArrayList<>();
-        for (String id : curator.getChildren().forPath(props.getPath())) {
-            String fullpath = props.getPath() + "/" + id;
-            String timestamp = new String(curator.getData().forPath(fullpath));
-            if (!NumberUtils.isDigits(id) || !NumberUtils.isDigits(timestamp)) {
-                log.warn("invalid node: {}, {}", id, timestamp);
-                continue;
+        curator.inTransaction()
+                .delete().withVersion(stat.getVersion()).forPath(lockPath)
+                .and()
+                .setData().forPath(path, this.encodeTimestamp(0))
+                .and()
+                .commit();
+        this.lockPath = null;
+        log.info("released nodeID: {}", nodeID);
+    }
+
+    // make sure the parent of specified path exists
+    private void ensureParent(String path) throws Exception {
+        String parent = ZKPaths.getPathAndNode(path).getPath();
+        if (this.nodeCache.getCurrentData(parent) != null) {
+            return;
+        }
+        try {
+            curator.create().creatingParentsIfNeeded().forPath(parent, new byte[0]);
+        } catch (KeeperException.NodeExistsException ignored) {
+        }
+    }
+
+    // fetch the current ZK session's id
+    private long sessionId() throws Exception {
+        return curator.getZookeeperClient().getZooKeeper().getSessionId();
+    }
+
+    // start the nodeCache if need, and wait for its initial load
+    private boolean startNodeCache() throws Exception {
+        if (this.nodeCache == null) {
+            TreeCache cache = TreeCache.newBuilder(curator, props.getPath())
+                    .setCacheData(true)
+                    .setCreateParentNodes(true)
+                    .setMaxDepth(props.getShardBitNum() > 0 ? 3 : 2)
+                    .build();
+            cache.getListenable().addListener((client, event) -> {
+                if (event.getType() == TreeCacheEvent.Type.INITIALIZED) {
+                    this.nodeCacheReady.countDown();
+                }
+            });
+            cache.start();
+            this.nodeCache = cache;
+        }
+        return this.nodeCacheReady.await(3, TimeUnit.SECONDS);
+    }
+
+    // keep the specified nodeID alive, flush its timestamp if need
+    private void heartbeat(int nodeID) throws Exception {
+        long now = System.currentTimeMillis();
+        if (props.getHeartbeat() == ClusterIDHeartbeat.SESSION) {
+            if (!this.isLockAlive()) {
+                log.warn("the lock of nodeID[{}] was lost.", nodeID);
+                this.updateStatus(ClusterIDStatus.UNLOCK, nodeID);
+                return;
+            }
+            if (now - this.flushTime < props.getSessionFlushIntervalMs()) {
+                return;
             }
-            int nodeID = NumberUtils.toInt(id);
-            long nodeTimestamp = NumberUtils.toLong(timestamp);
-            boolean locked = !CollectionUtils.isEmpty(curator.getChildren().forPath(fullpath));
-            result.add(new ClusterIDNode(nodeID, nodeTimestamp, locked));
         }
-        return result;
+        this.flushTimestamp(nodeID);
+        this.saveStickyID(nodeID);
+    }
+
+    // check whether the current lock is still hold by the current session, prefer nodeCache's data
+    private boolean isLockAlive() throws Exception {
+        String lockPath = this.lockPath;
+        if (lockPath == null) {
+            return false;
+        }
+        ChildData data = this.nodeCache.getCurrentData(lockPath);
+        Stat stat = data != null ? data.getStat() : curator.checkExists().forPath(lockPath);
+        return stat != null && stat.getEphemeralOwner() == this.sessionId();
     }
 
     // flush the specified nodeID's timestamp
     private void flushTimestamp(int nodeID) throws Exception {
-        String path = props.getPath() + "/" + nodeID;
         if (curator.getState() != CuratorFrameworkState.STARTED) {
             return;
         }
-        if (curator.checkExists().forPath(path) == null) {
-            curator.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT).forPath(path);
+        long now = System.currentTimeMillis();
+        curator.setData().forPath(this.nodePath(nodeID), this.encodeTimestamp(now));
+        this.flushTime = now;
+    }
+
+    // encode timestamp as text, which is the only format could be parsed by old versions
+    private byte[] encodeTimestamp(long timestamp) {
+        return String.valueOf(timestamp).getBytes();
+    }
+
+    // decode node's timestamp, -1 means invalid
+    private static long decodeTimestamp(byte[] data) {
+        if (data == null) {
+            return -1;
+        }
+        String text = new String(data);
+        return NumberUtils.isDigits(text) ? NumberUtils.toLong(text) : -1;
+    }
+
+    // build the znode path of the specified nodeID, like `/clusterid/<id>` or `/clusterid/<hi>/<lo>`
+    private String nodePath(int nodeID) {
+        int shardBitNum = props.getShardBitNum();
+        if (shardBitNum <= 0) {
+            return props.getPath() + "/" + nodeID;
         }
-        curator.setData().forPath(path, String.valueOf(System.currentTimeMillis()).getBytes());
+        return props.getPath() + "/" + (nodeID >>> shardBitNum) + "/" + (nodeID & ((1 << shardBitNum) - 1));
     }
 
     // update the current ClusterID's status
     private void updateStatus(ClusterIDStatus status, int nodeID) {
         log.info("ClusterID changed: {}, {}", status, nodeID);
-        this.nodeID = nodeID;
-        this.status = status;
-        this.statusSema.release();
+        this.lease.update(status, nodeID);
     }
 
 }
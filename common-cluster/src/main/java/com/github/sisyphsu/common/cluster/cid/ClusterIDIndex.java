@@ -0,0 +1,96 @@
+package com.github.sisyphsu.common.cluster.cid;
+
+import java.util.*;
+
+/**
+ * The free/stale index of nodeIDs, which is based on BitSet.
+ *
+ * @author sulin
+ * @since 2019-05-06 14:20:31
+ */
+class ClusterIDIndex {
+
+    /**
+     * The max value of nodeID, exclude
+     */
+    private final int maxID;
+    /**
+     * All nodeIDs which already exists, no matter it's locked or not
+     */
+    private final BitSet used;
+    /**
+     * All nodes which exists but unlocked
+     */
+    private final List<ClusterIDNode> staleNodes = new ArrayList<>();
+
+    /**
+     * Initialize index by the specified nodes
+     *
+     * @param maxID max value of nodeID, exclude
+     * @param nodes all known nodes
+     */
+    ClusterIDIndex(int maxID, Collection<ClusterIDNode> nodes) {
+        this.maxID = maxID;
+        this.used = new BitSet(maxID);
+        for (ClusterIDNode node : nodes) {
+            int id = node.getId();
+            if (id < 0 || id >= maxID) {
+                continue;
+            }
+            used.set(id);
+            if (!node.isLocked()) {
+                staleNodes.add(node);
+            }
+        }
+    }
+
+    /**
+     * Find the first free nodeID from the specified position, it will wrap around to 0 if need.
+     *
+     * @param from start position
+     * @return free nodeID, -1 means none
+     */
+    int nextFree(int from) {
+        int id = used.nextClearBit(from);
+        if (id >= maxID) {
+            id = used.nextClearBit(0);
+        }
+        return id < maxID ? id : -1;
+    }
+
+    /**
+     * Find some stale nodeIDs which have the min timestamp, ordered by timestamp.
+     *
+     * @param num max count
+     * @return stale nodeIDs
+     */
+    List<Integer> coldest(int num) {
+        staleNodes.sort(Comparator.comparingLong(ClusterIDNode::getTimestamp));
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < num && i < staleNodes.size(); i++) {
+            result.add(staleNodes.get(i).getId());
+        }
+        return result;
+    }
+
+    /**
+     * Probe some free nodeIDs from the specified seed position, it will wrap around to 0 if need.
+     *
+     * @param seed start position
+     * @param num  max count
+     * @return free nodeIDs
+     */
+    List<Integer> probeFree(int seed, int num) {
+        List<Integer> result = new ArrayList<>();
+        int first = this.nextFree(seed % maxID);
+        for (int id = first; id >= 0 && result.size() < num; ) {
+            result.add(id);
+            id = this.nextFree(id + 1);
+            if (id == first) {
+                break;
+            }
+        }
+        return result;
+    }
+
+}
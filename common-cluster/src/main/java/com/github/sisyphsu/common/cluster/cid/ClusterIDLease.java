@@ -0,0 +1,33 @@
+package com.github.sisyphsu.common.cluster.cid;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * An immutable snapshot of ClusterID's status and value.
+ * Every change will create a new lease with bigger epoch, so the caller can check
+ * whether its cached lease is still current by comparing the epoch.
+ *
+ * @author sulin
+ * @since 2019-05-13 10:15:42
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public final class ClusterIDLease {
+
+    /**
+     * ClusterID's status
+     */
+    private final ClusterIDStatus status;
+    /**
+     * ClusterID's value, -1 means invalid
+     */
+    private final int nodeID;
+    /**
+     * The monotonically increasing version of lease
+     */
+    private final long epoch;
+
+}
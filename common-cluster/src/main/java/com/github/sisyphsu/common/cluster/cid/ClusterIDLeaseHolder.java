@@ -0,0 +1,68 @@
+package com.github.sisyphsu.common.cluster.cid;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Hold the current ClusterIDLease, support lock-free read and blocking await.
+ *
+ * @author sulin
+ * @since 2019-05-13 10:26:08
+ */
+class ClusterIDLeaseHolder {
+
+    private final Object monitor = new Object();
+
+    private volatile ClusterIDLease lease = new ClusterIDLease(ClusterIDStatus.NONE, -1, 0);
+
+    /**
+     * Get the current lease, which is lock-free.
+     *
+     * @return current lease
+     */
+    ClusterIDLease get() {
+        return lease;
+    }
+
+    /**
+     * Replace the current lease with a new epoch, and wake up all waiters.
+     *
+     * @param status new status
+     * @param nodeID new nodeID
+     * @return new lease
+     */
+    ClusterIDLease update(ClusterIDStatus status, int nodeID) {
+        synchronized (monitor) {
+            this.lease = new ClusterIDLease(status, nodeID, lease.getEpoch() + 1);
+            monitor.notifyAll();
+            return this.lease;
+        }
+    }
+
+    /**
+     * Wait until the lease was ready(not NONE), or timeout, or stopped.
+     *
+     * @param timeoutMs max wait time
+     * @param closed    the checker of stop condition
+     * @return the current lease, its status may be still NONE if timeout or stopped
+     * @throws InterruptedException interrupted
+     */
+    ClusterIDLease await(long timeoutMs, BooleanSupplier closed) throws InterruptedException {
+        ClusterIDLease curr = lease;
+        if (curr.getStatus() != ClusterIDStatus.NONE) {
+            return curr;
+        }
+        long now = System.currentTimeMillis();
+        long deadline = timeoutMs >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeoutMs;
+        synchronized (monitor) {
+            while ((curr = lease).getStatus() == ClusterIDStatus.NONE && !closed.getAsBoolean()) {
+                long waitMs = deadline - System.currentTimeMillis();
+                if (waitMs <= 0) {
+                    break;
+                }
+                monitor.wait(waitMs);
+            }
+        }
+        return curr;
+    }
+
+}
@@ -25,5 +25,22 @@ public class ClusterIDNode {
      * Whether locked or not
      */
     private boolean locked;
+    /**
+     * The ZK's sessionId which hold the lock, 0 means none
+     */
+    private long owner;
+
+    /**
+     * Create node without owner
+     *
+     * @param id        ClusterID's value
+     * @param timestamp ClusterID's last active time
+     * @param locked    Whether locked or not
+     * @deprecated the owner is unknown, use {@link #ClusterIDNode(int, long, boolean, long)} instead
+     */
+    @Deprecated
+    public ClusterIDNode(int id, long timestamp, boolean locked) {
+        this(id, timestamp, locked, 0);
+    }
 
 }
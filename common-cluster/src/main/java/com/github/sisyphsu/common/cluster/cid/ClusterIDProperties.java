@@ -23,5 +23,49 @@ public class ClusterIDProperties {
      * the lock path in zookeeper
      */
     private String path = "/clusterid";
+    /**
+     * the low bit count of sharded znode layout, like `/clusterid/<id >>> shardBitNum>/<lo>`, default 0 means flat layout.
+     * it's useful for big bitNum, which could avoid huge `getChildren` response.
+     */
+    private int shardBitNum = 0;
+    /**
+     * the max count of candidates probed in every allocation round, default 8.
+     */
+    private int probeNum = 8;
+    /**
+     * the local file to persist the last held nodeID, which will be reused first after restart. empty means disabled.
+     * it could be placed in a persistent volume of the pod, to survive rescheduling.
+     */
+    private String stickyFile;
+    /**
+     * the heartbeat mode, SESSION mode could reduce ZK's write load greatly.
+     */
+    private ClusterIDHeartbeat heartbeat = ClusterIDHeartbeat.TIMESTAMP;
+    /**
+     * the interval of heartbeat (milliseconds), default 20s.
+     */
+    private int flushIntervalMs = 20000;
+    /**
+     * the interval of flushing timestamp in SESSION mode (milliseconds), default 10min.
+     */
+    private int sessionFlushIntervalMs = 600000;
+    /**
+     * whether use redis's ClusterID if there is no zookeeper, default false.
+     * it claims and renews nodeID in redis, so it must be enabled explicitly.
+     */
+    private boolean redisEnabled = false;
+    /**
+     * the key prefix in redis, used by redis's ClusterID. the hash tag keeps all keys in the same slot,
+     * it must contain a hash tag in redis cluster.
+     */
+    private String redisKey = "{clusterid}";
+    /**
+     * the lease's expire time in redis (milliseconds), default 10s.
+     */
+    private int leaseMs = 10000;
+    /**
+     * the shared directory of local slot files. if configured, ClusterID will be allocated by file lock in this host.
+     */
+    private String localDir;
 
 }
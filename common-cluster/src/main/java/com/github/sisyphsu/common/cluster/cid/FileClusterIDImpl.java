@@ -0,0 +1,220 @@
+package com.github.sisyphsu.common.cluster.cid;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ClusterID implementation based on local file lock.
+ * Processes in the same host compete slot files in a shared directory by `FileChannel#tryLock`,
+ * the lock will be released by OS automatically if the process exits.
+ * <p>
+ * The file lock belongs to the whole process, and closing any channel of the file drops it,
+ * so the slots claimed by current JVM are skipped without opening their files again.
+ * <p>
+ * If the host's ClusterID was specified, the final ID will be `(hostID << bitNum) | slot`.
+ *
+ * @author sulin
+ * @since 2019-05-10 10:32:16
+ */
+@Slf4j
+public class FileClusterIDImpl implements ClusterID, AutoCloseable {
+
+    /**
+     * The slot files claimed by all instances in current JVM
+     */
+    private static final Set<Path> CLAIMED_FILES = ConcurrentHashMap.newKeySet();
+    /**
+     * The channels of slot files locked by current JVM out of ClusterID, closing them would drop that lock
+     */
+    private static final List<FileChannel> FOREIGN_CHANNELS = new CopyOnWriteArrayList<>();
+
+    /**
+     * The bit count of local slot
+     */
+    private final int bitNum;
+    /**
+     * The host's ClusterID, which is optional
+     */
+    private final ClusterID host;
+    /**
+     * The current slot's value
+     */
+    private final int slot;
+    /**
+     * The current slot's file
+     */
+    private final Path file;
+    /**
+     * The channel of current slot's file
+     */
+    private final FileChannel channel;
+    /**
+     * The lock of current slot's file
+     */
+    private final FileLock lock;
+    /**
+     * Whether closed or not
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Initialize and lock an available slot in the specified directory
+     *
+     * @param dir    shared directory of slot files
+     * @param bitNum bit count of slot
+     */
+    public FileClusterIDImpl(String dir, int bitNum) {
+        this(dir, bitNum, null);
+    }
+
+    /**
+     * Initialize and lock an available slot in the specified directory
+     *
+     * @param dir    shared directory of slot files
+     * @param bitNum bit count of slot
+     * @param host   host's ClusterID, used as the prefix of final ID, nullable
+     */
+    public FileClusterIDImpl(String dir, int bitNum, ClusterID host) {
+        Assert.hasText(dir, "dir can't be empty");
+        Assert.isTrue(bitNum > 0 && bitNum < 31, "bitNum must be in (0, 31)");
+
+        this.bitNum = bitNum;
+        this.host = host;
+
+        Path path;
+        try {
+            path = Files.createDirectories(Paths.get(dir)).toRealPath();
+        } catch (IOException e) {
+            throw new IllegalStateException("create directory failed: " + dir, e);
+        }
+        for (int i = 0; i < 1 << bitNum; i++) {
+            Path file = path.resolve("slot-" + i + ".lock");
+            if (!CLAIMED_FILES.add(file)) {
+                log.trace("slot[{}] was claimed by current process.", i);
+                continue;
+            }
+            FileChannel channel = null;
+            FileLock lock = null;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                log.warn("slot[{}] was locked by current process out of ClusterID.", i);
+                FOREIGN_CHANNELS.add(channel); // keep the slot claimed and its channel open
+                continue;
+            } catch (IOException e) {
+                log.warn("lock slot[{}] failed: {}", i, e.getLocalizedMessage());
+            }
+            if (lock == null) {
+                // current process doesn't hold the file's lock, so closing the channel won't drop others' lock
+                closeQuietly(channel);
+                CLAIMED_FILES.remove(file);
+                continue;
+            }
+            this.slot = i;
+            this.file = file;
+            this.channel = channel;
+            this.lock = lock;
+            this.writeOwner();
+            log.info("ClusterID locked slot: {}", file);
+            return;
+        }
+        throw new IllegalStateException("No available slot in " + dir);
+    }
+
+    @Override
+    public int getBitNum() {
+        return host == null ? bitNum : host.getBitNum() + bitNum;
+    }
+
+    @Override
+    public int get() {
+        if (closed) {
+            throw new IllegalStateException("ClusterID is closed.");
+        }
+        return host == null ? slot : (host.get() << bitNum) | slot;
+    }
+
+    @Override
+    public ClusterIDStatus getStatus() {
+        if (closed) {
+            return ClusterIDStatus.NONE;
+        }
+        return host == null ? ClusterIDStatus.LOCK : host.getStatus();
+    }
+
+    /**
+     * The lease combines the host's lease and the slot, its epoch is `(hostEpoch + 1) * 2 + closed`,
+     * so it increases after the host's every change and this ClusterID's close.
+     */
+    @Override
+    public ClusterIDLease getLease() {
+        boolean closed = this.closed;
+        ClusterIDLease hostLease = host == null ? null : host.getLease();
+        long epoch = ((hostLease == null ? 0 : hostLease.getEpoch()) + 1) * 2 + (closed ? 1 : 0);
+        if (closed) {
+            return new ClusterIDLease(ClusterIDStatus.NONE, -1, epoch);
+        }
+        if (hostLease == null) {
+            return new ClusterIDLease(ClusterIDStatus.LOCK, slot, epoch);
+        }
+        int nodeID = hostLease.getNodeID() < 0 ? -1 : (hostLease.getNodeID() << bitNum) | slot;
+        return new ClusterIDLease(hostLease.getStatus(), nodeID, epoch);
+    }
+
+    /**
+     * Close this ClusterID, release the slot's file lock.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            lock.release();
+        } catch (IOException e) {
+            log.warn("release slot[{}] failed: {}", slot, e.getLocalizedMessage());
+        }
+        closeQuietly(channel);
+        CLAIMED_FILES.remove(file);
+    }
+
+    // write the current process's name into slot file, only for troubleshooting
+    private void writeOwner() {
+        byte[] owner = ManagementFactory.getRuntimeMXBean().getName().getBytes(StandardCharsets.UTF_8);
+        try {
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(owner), 0);
+        } catch (IOException e) {
+            log.debug("write slot's owner failed: {}", e.getLocalizedMessage());
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+}
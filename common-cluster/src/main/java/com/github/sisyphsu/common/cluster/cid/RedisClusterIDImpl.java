@@ -0,0 +1,232 @@
+package com.github.sisyphsu.common.cluster.cid;
+
+import com.github.sisyphsu.common.cluster.utils.RedisUtils;
+import com.github.sisyphsu.common.cluster.utils.ScheduleUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * ClusterID implementation based on redis.
+ * A bitmap was used to find free nodeIDs by one `BITPOS`, and every nodeID's lease is recorded in a zset of deadline
+ * and a hash of token, the expired leases' bits will be cleared during allocation.
+ * All keys are declared in scripts and share the same hash tag, so it works in redis cluster too.
+ *
+ * @author sulin
+ * @since 2019-05-09 15:20:45
+ */
+@Slf4j
+public class RedisClusterIDImpl extends Thread implements ClusterID, AutoCloseable {
+
+    private static final String ACQUIRE_FILE = "lua/cid-acquire.lua";
+    private static final String RENEW_FILE = "lua/cid-renew.lua";
+    private static final String RELEASE_FILE = "lua/cid-release.lua";
+    private static final int PURGE_LIMIT = 128;
+
+    private final StringRedisTemplate template;
+    private final ClusterIDProperties props;
+
+    private final RedisScript<Long> acquireScript;
+    private final RedisScript<Long> renewScript;
+    private final RedisScript<Long> releaseScript;
+
+    /**
+     * The lease's token of current instance
+     */
+    private final String token = UUID.randomUUID().toString();
+    /**
+     * ClusterID's lease, include status and value
+     */
+    private final ClusterIDLeaseHolder lease = new ClusterIDLeaseHolder();
+    /**
+     * The last nodeID, will be preferred in next allocation
+     */
+    private int lastNodeID = -1;
+    /**
+     * Whether closed or not
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Initialize and start a daemon thread to occupy nodeID's lease
+     *
+     * @param template Redis's template
+     * @param props    ClusterID's configuration
+     */
+    public RedisClusterIDImpl(StringRedisTemplate template, ClusterIDProperties props) {
+        Assert.notNull(template, "template can't be null");
+        Assert.notNull(props, "props can't be null");
+
+        this.template = template;
+        this.props = props;
+        this.acquireScript = RedisUtils.loadScript(ACQUIRE_FILE, Long.class);
+        this.renewScript = RedisUtils.loadScript(RENEW_FILE, Long.class);
+        this.releaseScript = RedisUtils.loadScript(RELEASE_FILE, Long.class);
+
+        this.setDaemon(true);
+        this.setName("RedisClusterID");
+        this.start();
+    }
+
+    @Override
+    public int getBitNum() {
+        return this.props.getBitNum();
+    }
+
+    @Override
+    public int get() {
+        ClusterIDLease curr = null;
+        while (curr == null) {
+            try {
+                curr = this.awaitLease(Long.MAX_VALUE);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        if (closed) {
+            throw new IllegalStateException("ClusterID is closed.");
+        }
+        return curr.getNodeID();
+    }
+
+    @Override
+    public ClusterIDStatus getStatus() {
+        return this.lease.get().getStatus();
+    }
+
+    @Override
+    public ClusterIDLease getLease() {
+        return this.lease.get();
+    }
+
+    /**
+     * Wait until the ClusterID is ready, or timeout, or closed.
+     *
+     * @param timeoutMs max wait time
+     * @return the current lease, its status is NONE if timeout or closed
+     * @throws InterruptedException interrupted
+     */
+    public ClusterIDLease awaitLease(long timeoutMs) throws InterruptedException {
+        return this.lease.await(timeoutMs, () -> closed);
+    }
+
+    /**
+     * Close this ClusterID, release the lease right away.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.interrupt();
+        try {
+            this.join(3000);
+        } catch (InterruptedException ignored) {
+        }
+        int nodeID = this.lease.get().getNodeID();
+        if (nodeID >= 0) {
+            try {
+                template.execute(releaseScript, Arrays.asList(this.bitmapKey(), this.leasesKey(), this.ownersKey()),
+                        String.valueOf(nodeID), token);
+                log.info("released nodeID: {}", nodeID);
+            } catch (Exception e) {
+                log.warn("release nodeID[{}] failed: {}", nodeID, e.getLocalizedMessage());
+            }
+        }
+        this.updateStatus(ClusterIDStatus.NONE, -1);
+    }
+
+    @Override
+    public void run() {
+        while (!this.closed) {
+            ClusterIDLease curr = this.lease.get();
+            int nodeID = curr.getNodeID();
+            switch (curr.getStatus()) {
+                case NONE:
+                    try {
+                        Integer newID = this.allocateNodeID();
+                        if (newID == null) {
+                            log.warn("No available nodeID for {}, retry later", props.getRedisKey());
+                        } else {
+                            this.updateStatus(ClusterIDStatus.LOCK, newID);
+                        }
+                    } catch (Exception e) {
+                        log.error("Allocate ClusterID failed.", e);
+                    }
+                    ScheduleUtils.sleep(1000);
+                    break;
+                case LOCK:
+                    try {
+                        if (!this.renewLease(nodeID)) {
+                            log.warn("the lease of nodeID[{}] was lost.", nodeID);
+                            this.updateStatus(ClusterIDStatus.NONE, -1);
+                        }
+                    } catch (Exception e) {
+                        log.error("renew lease failed.", e);
+                        this.updateStatus(ClusterIDStatus.UNLOCK, nodeID);
+                    }
+                    ScheduleUtils.sleep(props.getLeaseMs() / 3);
+                    break;
+                case UNLOCK:
+                    try {
+                        if (this.renewLease(nodeID)) {
+                            log.debug("renew the old nodeID[{}] after reconnection.", nodeID);
+                            this.updateStatus(ClusterIDStatus.LOCK, nodeID);
+                        } else {
+                            log.warn("renew the old nodeID[{}] failed! there will be some risks in the past.", nodeID);
+                            this.updateStatus(ClusterIDStatus.NONE, -1);
+                        }
+                    } catch (Exception e) {
+                        log.error("renew the old nodeID failed.", e);
+                    }
+                    ScheduleUtils.sleep(1000);
+                    break;
+            }
+        }
+    }
+
+    // allocate an new available nodeID in one round trip, prefer the last one.
+    private Integer allocateNodeID() {
+        Long result = template.execute(acquireScript, Arrays.asList(this.bitmapKey(), this.leasesKey(), this.ownersKey()),
+                token, String.valueOf(props.getLeaseMs()), String.valueOf(1 << props.getBitNum()),
+                String.valueOf(lastNodeID), String.valueOf(PURGE_LIMIT));
+        if (result == null || result < 0) {
+            return null;
+        }
+        log.debug("take over nodeID: {}", result);
+        return result.intValue();
+    }
+
+    // renew the lease of specified nodeID, return false if it was lost.
+    private boolean renewLease(int nodeID) {
+        Long result = template.execute(renewScript, Arrays.asList(this.leasesKey(), this.ownersKey()),
+                String.valueOf(nodeID), token, String.valueOf(props.getLeaseMs()));
+        return result != null && result > 0;
+    }
+
+    private String bitmapKey() {
+        return props.getRedisKey() + ":bitmap";
+    }
+
+    private String leasesKey() {
+        return props.getRedisKey() + ":leases";
+    }
+
+    private String ownersKey() {
+        return props.getRedisKey() + ":owners";
+    }
+
+    // update the current ClusterID's status
+    private void updateStatus(ClusterIDStatus status, int nodeID) {
+        log.info("ClusterID changed: {}, {}", status, nodeID);
+        if (nodeID >= 0) {
+            this.lastNodeID = nodeID;
+        }
+        this.lease.update(status, nodeID);
+    }
+
+}
@@ -1,24 +1,28 @@
 package com.github.sisyphsu.common.cluster.dlock;
 
+import com.github.sisyphsu.common.cluster.utils.RedisUtils;
 import com.github.sisyphsu.common.cluster.utils.ScheduleUtils;
-import com.google.common.base.Charsets;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
-import org.springframework.util.StreamUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.Future;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * The distributed lock based on redis.
@@ -30,6 +34,20 @@ import java.util.function.Supplier;
 public class DistributedLock {
 
     private static final String ACQUIRE_FILE = "lua/dlock-acquire.lua";
+    private static final String RELEASE_FILE = "lua/dlock-release.lua";
+    private static final String FLUSH_FILE = "lua/dlock-flush.lua";
+    private static final String FAIR_ACQUIRE_FILE = "lua/dlock-acquire-fair.lua";
+    private static final String FAIR_RELEASE_FILE = "lua/dlock-release-fair.lua";
+    private static final String SHARED_ACQUIRE_FILE = "lua/dlock-acquire-shared.lua";
+    private static final String SHARED_RELEASE_FILE = "lua/dlock-release-shared.lua";
+    private static final String SHARED_FLUSH_FILE = "lua/dlock-flush-shared.lua";
+    private static final String WITHDRAW_FILE = "lua/dlock-withdraw.lua";
+    private static final String QUEUE_SUFFIX = "#queue";
+    static final String LEASE_SUFFIX = "#lease";
+    /**
+     * Every thread reuses its own waiter to wait unlock notification
+     */
+    private static final ThreadLocal<DistributedLockWaiter> WAITERS = ThreadLocal.withInitial(() -> new DistributedLockWaiter(Thread.currentThread()));
 
     private StringRedisTemplate template;
     private DistributedLockProperties props;
@@ -43,37 +61,146 @@ public class DistributedLock {
      */
     private DistributedLockMonitor monitor;
     /**
-     * all lock hold by this instance.
+     * the local queue of keys, all lock hold by this instance are recorded in it.
      */
-    private Set<String> lockedKeys = new ConcurrentSkipListSet<>();
+    private final DistributedLockQueue queue;
     /**
      * dlock's lua script
      */
     private RedisScript<String> acquireScript;
+    private RedisScript<Long> releaseScript;
+    private RedisScript<List<String>> flushScript;
+    private RedisScript<String> sharedAcquireScript;
+    private RedisScript<Long> sharedReleaseScript;
+    private RedisScript<List<String>> sharedFlushScript;
+    private RedisScript<Long> withdrawScript;
+    /**
+     * the local readers of shared keys
+     */
+    private final DistributedLockShares shares;
+    /**
+     * the listener of lost locks, which were taken by others or expired before renewal
+     */
+    private volatile Consumer<List<String>> lostListener;
+    /**
+     * the negative cache of keys held by others, key's value is the deadline that it's known to be held
+     */
+    private final Map<String, Long> remoteHeldKeys = new ConcurrentHashMap<>();
+    /**
+     * the semaphores and rate limiters created by this instance, the semaphores' leases are renewed with locks
+     */
+    private final Map<String, DistributedSemaphore> semaphores = new ConcurrentHashMap<>();
+    private final Map<String, DistributedRateLimiter> rateLimiters = new ConcurrentHashMap<>();
 
     private Future future;
+    /**
+     * the dedicated executor of the asynchronous lock's redis calls, which mustn't run in the caller's thread
+     */
+    private ExecutorService asyncExecutor;
+    /**
+     * whether the redis is cluster or not, keys in different slots must be locked separately
+     */
+    private boolean cluster;
 
     public DistributedLock(StringRedisTemplate template, DistributedLockProperties props) {
         this.token = UUID.randomUUID().toString();
         this.template = template;
         this.props = props;
+        // affinity and local handoff conflict with fair mode, the local waiters shouldn't jump the queue
+        this.queue = new DistributedLockQueue(this::releaseRemote, props.isFair() ? 0 : props.getAffinityMs(), !props.isFair());
+        this.shares = new DistributedLockShares(token);
     }
 
     @PostConstruct
     public void init() {
-        this.acquireScript = new DefaultRedisScript<>(loadResource(ACQUIRE_FILE), String.class);
-        this.monitor = new DistributedLockMonitor(props.getChannel(), () -> {
+        if (props.isFair()) {
+            this.acquireScript = RedisUtils.loadScript(FAIR_ACQUIRE_FILE, String.class);
+            this.releaseScript = RedisUtils.loadScript(FAIR_RELEASE_FILE, Long.class);
+        } else {
+            this.acquireScript = RedisUtils.loadScript(ACQUIRE_FILE, String.class);
+            this.releaseScript = RedisUtils.loadScript(RELEASE_FILE, Long.class);
+        }
+        this.flushScript = RedisUtils.loadListScript(FLUSH_FILE);
+        this.sharedAcquireScript = RedisUtils.loadScript(SHARED_ACQUIRE_FILE, String.class);
+        this.sharedReleaseScript = RedisUtils.loadScript(SHARED_RELEASE_FILE, Long.class);
+        this.sharedFlushScript = RedisUtils.loadListScript(SHARED_FLUSH_FILE);
+        this.withdrawScript = RedisUtils.loadScript(WITHDRAW_FILE, Long.class);
+        RedisConnectionFactory factory = template.getConnectionFactory();
+        this.cluster = props.isCluster()
+                || (factory instanceof LettuceConnectionFactory && ((LettuceConnectionFactory) factory).isClusterAware());
+        String keyspacePrefix = props.isKeyspaceNotify() ? props.getPrefix() : null;
+        this.monitor = new DistributedLockMonitor(props.getChannel(), props.getChannelShards(), keyspacePrefix, () -> {
             if (this.template != null && this.template.getConnectionFactory() != null) {
                 return this.template.getConnectionFactory().getConnection();
             }
             return null;
         });
-        this.future = ScheduleUtils.runEvery(props.getFlushIntervalSecond() * 1000, this::flushAllLock);
+        // only the head waiter, the holder or the readers wanted by writer will be notified
+        monitor.addChannel(this.waiterChannel());
+        // the negative cache and the readers' gate only care about the notification while they aren't empty,
+        // the gate is also opened because the writer got the lock or gave up.
+        monitor.setUnlockListener(unlockedKeys -> {
+            unlockedKeys.forEach(remoteHeldKeys::remove);
+            shares.ungate(unlockedKeys);
+        }, () -> !remoteHeldKeys.isEmpty() || shares.hasGate());
+        // the listener runs in redis's subscriber thread, the remote release mustn't block it
+        monitor.setInterestListener(keys -> {
+            shares.gate(keys, System.currentTimeMillis() + props.getExpireMs());
+            ScheduleUtils.runAsync(() -> queue.unpark(keys));
+        });
+        this.future = ScheduleUtils.runEvery(props.getFlushIntervalMs(), this::flushAllLock);
+        AtomicInteger threadIdx = new AtomicInteger(0);
+        this.asyncExecutor = new ThreadPoolExecutor(props.getAsyncPoolSize(), props.getAsyncPoolSize(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(props.getAsyncQueueSize()), run -> {
+            Thread thread = new Thread(run);
+            thread.setName("dlock-async-" + threadIdx.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @PreDestroy
     public void destory() {
         this.future.cancel(true);
+        this.asyncExecutor.shutdown();
+        queue.expireParked(Long.MAX_VALUE);
+        semaphores.values().forEach(semaphore -> semaphore.flush(0));
+        rateLimiters.values().forEach(limiter -> limiter.flush(Long.MAX_VALUE));
+    }
+
+    /**
+     * Set the listener of lost locks, which will be notified if some held keys
+     * were found expired or taken by others during renewal.
+     *
+     * @param listener the lost keys' listener
+     */
+    public void setLostListener(Consumer<List<String>> listener) {
+        this.lostListener = listener;
+    }
+
+    /**
+     * Fetch the distributed semaphore of the specified name, create it if not exists.
+     * The permits must be the same in all nodes, and the existing semaphore is returned for the same name.
+     *
+     * @param name    semaphore's name
+     * @param permits the max permits
+     * @return DistributedSemaphore
+     */
+    public DistributedSemaphore getSemaphore(String name, int permits) {
+        return semaphores.computeIfAbsent(name, n -> new DistributedSemaphore(template, props, monitor, token, n, permits));
+    }
+
+    /**
+     * Fetch the distributed rate limiter of the specified name, create it if not exists.
+     * The rate and burst must be the same in all nodes, and the existing limiter is returned for the same name.
+     *
+     * @param name  rate limiter's name
+     * @param rate  the tokens refilled every second
+     * @param burst the max tokens in bucket
+     * @return DistributedRateLimiter
+     */
+    public DistributedRateLimiter getRateLimiter(String name, int rate, int burst) {
+        return rateLimiters.computeIfAbsent(name, n -> new DistributedRateLimiter(template, props, n, rate, burst));
     }
 
     /**
@@ -100,7 +227,36 @@ public class DistributedLock {
      * @throws Exception dlock fail or biz error
      */
     public <T> T runInLock(List<String> keys, Supplier<T> run) throws Exception {
-        if (!this.lock(keys, 3000)) {
+        return this.runInLock(keys, 3000, run);
+    }
+
+    /**
+     * Run the specified function in distributed lock.
+     *
+     * @param keys      the keys need to be lock.
+     * @param timeoutMS block time
+     * @param run       execute body
+     * @throws Exception dlock fail or biz error
+     */
+    public void runInLock(List<String> keys, int timeoutMS, Runnable run) throws Exception {
+        this.runInLock(keys, timeoutMS, () -> {
+            run.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run the specified function in distributed lock.
+     *
+     * @param keys      the keys need to be lock.
+     * @param timeoutMS block time
+     * @param run       execute body
+     * @param <T>       generic type
+     * @return result
+     * @throws Exception dlock fail or biz error
+     */
+    public <T> T runInLock(List<String> keys, int timeoutMS, Supplier<T> run) throws Exception {
+        if (!this.lock(keys, timeoutMS)) {
             throw new InterruptedException("DLock competition failed");
         }
         try {
@@ -110,30 +266,115 @@ public class DistributedLock {
         }
     }
 
+    /**
+     * Run the specified asynchronous function in distributed lock, no thread is blocked during waiting.
+     * The keys will be unlocked after the function's future completed.
+     *
+     * @param keys      the keys need to be lock.
+     * @param timeoutMS max wait time
+     * @param run       asynchronous execute body
+     * @param <T>       generic type
+     * @return the future of result, completed by TimeoutException if dlock fail
+     */
+    public <T> CompletableFuture<T> runInLockAsync(List<String> keys, int timeoutMS, Supplier<CompletableFuture<T>> run) {
+        return this.lockAsync(keys, timeoutMS).thenCompose(handle -> {
+            CompletableFuture<T> future;
+            try {
+                future = run.get();
+            } catch (Throwable e) {
+                handle.unlock();
+                throw e;
+            }
+            return future.whenComplete((result, e) -> handle.unlock());
+        });
+    }
+
+    /**
+     * Lock the specified keys asynchronously, no thread is blocked during waiting.
+     * The waiting is driven by the local handoff, unlock notification and the shared timer,
+     * and the redis calls run in the dedicated async executor, the future may be completed in it too.
+     * <p>
+     * The returned handle is the lock's owner instead of thread, so it isn't reentrant with the thread's lock,
+     * and could be unlocked in any thread. If the future was cancelled, the keys will be unlocked once locked.
+     *
+     * @param keys      the keys need to be locked
+     * @param timeoutMS max wait time
+     * @return the future of lock's handle, completed by TimeoutException if dlock fail
+     */
+    public CompletableFuture<LockHandle> lockAsync(List<String> keys, int timeoutMS) {
+        long deadline = System.currentTimeMillis() + timeoutMS;
+        List<String> sortedKeys = sortKeys(keys);
+        LockHandle handle = new LockHandle(queue, sortedKeys);
+        CompletableFuture<LockHandle> result = new CompletableFuture<>();
+        queue.acquireAsync(sortedKeys, handle, deadline).thenAccept(localLocked -> {
+            if (!localLocked) {
+                log.debug("dlock local competition fails: {}", keys);
+                result.completeExceptionally(new TimeoutException("DLock competition failed"));
+                return;
+            }
+            List<String> remoteKeys = queue.unheld(sortedKeys);
+            long expireAt = System.currentTimeMillis() + props.getExpireMs();
+            CompletableFuture<Boolean> remote = remoteKeys.isEmpty() ? CompletableFuture.completedFuture(true)
+                    : this.lockRemoteAsync(remoteKeys, deadline, true, (waiting, useCache) -> this.tryLockRemote(remoteKeys, waiting, useCache));
+            remote.whenComplete((remoteLocked, e) -> {
+                if (remoteLocked != null && remoteLocked) {
+                    queue.markHeld(remoteKeys, expireAt);
+                    if (!result.complete(handle)) {
+                        handle.unlock(); // cancelled by the caller
+                    }
+                    return;
+                }
+                queue.release(sortedKeys, handle);
+                result.completeExceptionally(e != null ? e : new TimeoutException("DLock competition failed"));
+            });
+        });
+        return result;
+    }
+
+    /**
+     * The reactive variant of {@link #lockAsync(List, int)}, the lock starts after subscription in the async executor,
+     * and the cancelled subscription's keys will be unlocked once locked.
+     *
+     * @param keys      the keys need to be locked
+     * @param timeoutMS max wait time
+     * @return the Mono of lock's handle, error by TimeoutException if dlock fail
+     */
+    public Mono<LockHandle> lockReactive(List<String> keys, int timeoutMS) {
+        return Mono.defer(() -> {
+            CompletableFuture<LockHandle> future = this.lockAsync(keys, timeoutMS);
+            return Mono.fromFuture(future).doOnCancel(() -> future.cancel(false));
+        }).subscribeOn(Schedulers.fromExecutorService(asyncExecutor));
+    }
+
     /**
      * Try lock the specified keys, block for a while if not success.
+     * Only one thread in current JVM competes the same key in redis, others wait in local queue.
+     * The lock is reentrant, the keys already held by current thread won't access redis again.
      *
      * @param keys      the keys need to be locked
      * @param timeoutMS block time
      * @return whether success or not
      */
     public boolean lock(List<String> keys, int timeoutMS) {
-        long futureTime = System.currentTimeMillis() + timeoutMS;
-        boolean hasLock;
-        while (true) {
-            hasLock = this.tryLock(keys);
-            if (hasLock || System.currentTimeMillis() >= futureTime) {
-                break;
-            }
-            log.debug("dlock competition fails, enters waiting: {}", keys);
-            Semaphore sema = new Semaphore(0);
-            monitor.addListener(keys, sema);
-            ScheduleUtils.runAfter(timeoutMS, sema::release);
-            ScheduleUtils.runSeliently(sema::acquire);
-            monitor.delListener(keys, sema);
-        }
-        if (hasLock) {
-            this.lockedKeys.addAll(keys); // record the lock
+        long deadline = System.currentTimeMillis() + timeoutMS;
+        List<String> sortedKeys = sortKeys(keys);
+        Object owner = Thread.currentThread();
+        if (!queue.acquire(sortedKeys, owner, deadline)) {
+            log.debug("dlock local competition fails: {}", keys);
+            return false;
+        }
+        boolean hasLock = false;
+        try {
+            List<String> remoteKeys = queue.unheld(sortedKeys);
+            long expireAt = System.currentTimeMillis() + props.getExpireMs();
+            hasLock = remoteKeys.isEmpty() || this.lockRemote(remoteKeys, deadline);
+            if (hasLock) {
+                queue.markHeld(remoteKeys, expireAt); // record the lock
+            }
+        } finally {
+            if (!hasLock) {
+                queue.release(sortedKeys, owner);
+            }
         }
         return hasLock;
     }
@@ -145,49 +386,661 @@ public class DistributedLock {
      * @return whether success or not
      */
     public boolean tryLock(List<String> keys) {
-        monitor.blockIfRisk();
-        for (String key : keys) {
-            if (this.lockedKeys.contains(key)) {
-                return false;
+        List<String> sortedKeys = sortKeys(keys);
+        Object owner = Thread.currentThread();
+        if (!queue.tryAcquire(sortedKeys, owner)) {
+            return false;
+        }
+        boolean hasLock = false;
+        try {
+            List<String> remoteKeys = queue.unheld(sortedKeys);
+            long expireAt = System.currentTimeMillis() + props.getExpireMs();
+            hasLock = remoteKeys.isEmpty() || this.tryLockRemote(remoteKeys);
+            if (hasLock) {
+                queue.markHeld(remoteKeys, expireAt);
+            }
+        } finally {
+            if (!hasLock) {
+                queue.release(sortedKeys, owner);
             }
         }
-        String expire = String.valueOf(props.getExpireSecond());
-        String result = template.execute(this.acquireScript, wrapKeys(keys), token, expire);
-        if (StringUtils.equalsIgnoreCase(result, "ok")) {
-            return true;
+        return hasLock;
+    }
+
+    /**
+     * Try lock many independent key groups without blocking, the keys need to be locked in redis
+     * will be tried in one pipelined round trip.
+     *
+     * @param keyGroups the independent key groups
+     * @return whether every group success or not, in the same order
+     */
+    public List<Boolean> tryLockAll(List<List<String>> keyGroups) {
+        Object owner = Thread.currentThread();
+        List<Boolean> results = new ArrayList<>(Collections.nCopies(keyGroups.size(), Boolean.FALSE));
+        List<List<String>> sortedGroups = new ArrayList<>();
+        List<Integer> remoteIndexes = new ArrayList<>();
+        List<List<String>> remoteGroups = new ArrayList<>();
+        for (int i = 0; i < keyGroups.size(); i++) {
+            List<String> sortedKeys = sortKeys(keyGroups.get(i));
+            sortedGroups.add(sortedKeys);
+            if (!queue.tryAcquire(sortedKeys, owner)) {
+                continue;
+            }
+            List<String> remoteKeys = queue.unheld(sortedKeys);
+            if (remoteKeys.isEmpty()) {
+                results.set(i, true);
+            } else if (this.isRemoteHeld(remoteKeys)) {
+                queue.release(sortedKeys, owner);
+            } else {
+                remoteIndexes.add(i);
+                remoteGroups.add(remoteKeys);
+            }
         }
-        if (StringUtils.isNotEmpty(result)) {
-            log.warn("tryLock failed: {}", result);
+        if (remoteGroups.isEmpty()) {
+            return results;
         }
-        return false;
+        long expireAt = System.currentTimeMillis() + props.getExpireMs();
+        List<Boolean> remoteResults = Collections.emptyList();
+        try {
+            remoteResults = this.tryLockRemoteAll(remoteGroups);
+        } finally {
+            for (int i = 0; i < remoteIndexes.size(); i++) {
+                int index = remoteIndexes.get(i);
+                if (i < remoteResults.size() && remoteResults.get(i)) {
+                    queue.markHeld(remoteGroups.get(i), expireAt);
+                    results.set(index, true);
+                } else {
+                    queue.release(sortedGroups.get(index), owner);
+                }
+            }
+        }
+        return results;
     }
 
     /**
-     * Try unlock, will delete the key directly.
+     * Unlock many key groups, which were locked by {@link #tryLockAll(List)}.
+     *
+     * @param keyGroups the key groups to unlock
+     */
+    public void unlockAll(List<List<String>> keyGroups) {
+        for (List<String> keys : keyGroups) {
+            this.unlock(keys);
+        }
+    }
+
+    /**
+     * Try unlock, the keys will be handed off to local waiters directly if exists,
+     * otherwise it will be deleted in redis. For reentrant holds, only the outermost unlock releases the keys.
      * No fault-tolerant processing is required, and even if the internal exception
      * causes the release to fail, the lock will automatically expire.
+     * <p>
+     * The keys are owned by the locking thread, so it must be called in the same thread,
+     * use {@link #lockAsync(List, int)} and {@link LockHandle} to unlock in another thread.
      *
      * @param keys the keys to unlock
+     * @throws IllegalMonitorStateException if some key is held by another thread
      */
     public void unlock(List<String> keys) {
-        this.lockedKeys.removeAll(keys);
-        // delete the lock
-        template.delete(wrapKeys(keys));
-        // notify other waiter
-        monitor.publishUnlock(keys);
+        queue.release(sortKeys(keys), Thread.currentThread());
     }
 
-    private void flushAllLock() {
-        if (lockedKeys.isEmpty()) {
+    /**
+     * Run the specified function in shared distributed lock, which only excludes the exclusive lock.
+     *
+     * @param keys the keys need to be lock.
+     * @param run  execute body
+     * @param <T>  generic type
+     * @return result
+     * @throws Exception dlock fail or biz error
+     */
+    public <T> T runInSharedLock(List<String> keys, Supplier<T> run) throws Exception {
+        if (!this.lockShared(keys, 3000)) {
+            throw new InterruptedException("DLock competition failed");
+        }
+        try {
+            return run.get();
+        } finally {
+            this.unlockShared(keys);
+        }
+    }
+
+    /**
+     * Try lock the specified keys in shared mode, block for a while if not success.
+     * All readers in current JVM share one reader in redis's hash, which only conflicts with exclusive lock.
+     * The new readers wait after some writer is waiting for the keys, so the writer won't be starved by readers.
+     *
+     * @param keys      the keys need to be locked
+     * @param timeoutMS block time
+     * @return whether success or not
+     */
+    public boolean lockShared(List<String> keys, int timeoutMS) {
+        long deadline = System.currentTimeMillis() + timeoutMS;
+        List<String> sortedKeys = sortKeys(keys);
+        if (!this.awaitUngated(sortedKeys, deadline)) {
+            return false;
+        }
+        Map<String, String> fields = shares.acquire(sortedKeys);
+        List<String> remoteKeys = new ArrayList<>(fields.keySet());
+        boolean hasLock = false;
+        try {
+            long expireAt = System.currentTimeMillis() + props.getExpireMs();
+            if (fields.isEmpty()) {
+                hasLock = true;
+            } else if (timeoutMS <= 0) {
+                hasLock = this.tryLockSharedRemote(fields, false);
+            } else {
+                hasLock = this.lockRemote(remoteKeys, deadline, false, (waiting, useCache) -> this.tryLockSharedRemote(fields, waiting));
+            }
+            if (hasLock) {
+                shares.markHeld(remoteKeys, expireAt);
+            }
+        } finally {
+            if (!hasLock) {
+                this.releaseSharedRemote(shares.release(sortedKeys), true);
+            }
+        }
+        return hasLock;
+    }
+
+    /**
+     * Try lock the specified keys in shared mode
+     *
+     * @param keys the keys need to be locked
+     * @return whether success or not
+     */
+    public boolean tryLockShared(List<String> keys) {
+        return this.lockShared(keys, 0);
+    }
+
+    /**
+     * Unlock the shared keys, the reader will be deleted from redis after the last local reader left.
+     *
+     * @param keys the keys to unlock
+     */
+    public void unlockShared(List<String> keys) {
+        this.releaseSharedRemote(shares.release(sortKeys(keys)), true);
+    }
+
+    // wait until the local readers of keys aren't gated by writer, the current readers' leaving will notify
+    private boolean awaitUngated(List<String> keys, long deadline) {
+        if (!shares.isGated(keys)) {
+            return true;
+        }
+        DistributedLockWaiter waiter = WAITERS.get();
+        monitor.addListener(keys, waiter);
+        try {
+            while (true) {
+                waiter.reset();
+                if (!shares.isGated(keys)) {
+                    return true;
+                }
+                long now = System.currentTimeMillis();
+                if (deadline <= now) {
+                    return false;
+                }
+                log.debug("dlock's shared keys are wanted by writer, enters waiting: {}", keys);
+                waiter.await(Math.min(deadline, now + props.getExpireMs() / 2));
+            }
+        } finally {
+            monitor.delListener(keys, waiter);
+        }
+    }
+
+    // lock the specified keys in redis, block for a while if not success.
+    private boolean lockRemote(List<String> keys, long deadline) {
+        return this.lockRemote(keys, deadline, true, (waiting, useCache) -> this.tryLockRemote(keys, waiting, useCache));
+    }
+
+    // lock the specified keys in redis by the specified attempt, block for a while if not success.
+    // the exclusive waiter enqueues in fair mode or marks the readers' hash, which will be withdrawn if it gave up.
+    private boolean lockRemote(List<String> keys, long deadline, boolean exclusive, RemoteAttempt attempt) {
+        boolean fair = exclusive && props.isFair();
+        if (attempt.tryLock(false, true)) {
+            return true;
+        }
+        // listen before retry, so the unlock notification won't be missed
+        DistributedLockWaiter waiter = WAITERS.get();
+        monitor.addListener(keys, waiter);
+        boolean hasLock = false;
+        boolean first = true;
+        try {
+            while (true) {
+                waiter.reset();
+                // the first waiting attempt must reach redis, to enqueue or notify the holder
+                hasLock = attempt.tryLock(true, !first && !fair);
+                if (hasLock) {
+                    return true;
+                }
+                first = false;
+                long now = System.currentTimeMillis();
+                if (deadline <= now) {
+                    return false;
+                }
+                log.debug("dlock competition fails, enters waiting: {}", keys);
+                // keep the waiter's lease in queue or the writer's mark in readers' hash alive, and purge the dead ones
+                waiter.await(Math.min(deadline, now + props.getExpireMs() / 2));
+            }
+        } finally {
+            monitor.delListener(keys, waiter);
+            if (!hasLock && exclusive) {
+                this.withdrawRemote(keys);
+            }
+        }
+    }
+
+    // lock the specified keys in redis by the specified attempt in async executor, retry after notification or timer
+    private CompletableFuture<Boolean> lockRemoteAsync(List<String> keys, long deadline, boolean exclusive, RemoteAttempt attempt) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            asyncExecutor.execute(() -> {
+                try {
+                    if (attempt.tryLock(false, true)) {
+                        result.complete(true);
+                        return;
+                    }
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                new RemoteWaiting(keys, deadline, exclusive, attempt, result).start();
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    // try lock the specified keys in redis, without waiting
+    private boolean tryLockRemote(List<String> keys) {
+        return this.tryLockRemote(keys, false, true);
+    }
+
+    // try lock the specified keys in redis, if waiting, enqueue in fair mode or notify the holders in affinity mode.
+    // in redis cluster or for too many keys, lock keys chunk by chunk in order, and rollback if some chunk failed.
+    private boolean tryLockRemote(List<String> keys, boolean waiting, boolean useCache) {
+        if (useCache && this.isRemoteHeld(keys)) {
+            return false; // fail fast, it's known to be held by others
+        }
+        monitor.blockIfRisk();
+        List<String> lockedKeys = new ArrayList<>();
+        for (List<String> slotKeys : this.splitKeys(keys)) {
+            if (!this.tryLockSlot(slotKeys, waiting)) {
+                this.releaseRemote(lockedKeys);
+                return false;
+            }
+            lockedKeys.addAll(slotKeys);
+        }
+        return true;
+    }
+
+    // try lock the specified keys in the same slot by one script
+    private boolean tryLockSlot(List<String> keys, boolean waiting) {
+        String result = template.execute(this.acquireScript, this.acquireKeys(keys), this.acquireArgs(waiting).toArray());
+        return this.checkAcquired(keys, result);
+    }
+
+    // try lock the specified key groups independently in one pipelined round trip, fallback to one by one if need
+    private List<Boolean> tryLockRemoteAll(List<List<String>> keyGroups) {
+        boolean pipelined = !cluster && keyGroups.size() > 1;
+        for (List<String> keys : keyGroups) {
+            pipelined = pipelined && keys.size() <= props.getChunkSize();
+        }
+        if (pipelined) {
+            monitor.blockIfRisk();
+            byte[] sha = acquireScript.getSha1().getBytes();
+            List<Object> results = null;
+            try {
+                results = template.executePipelined((RedisCallback<Object>) connection -> {
+                    for (List<String> keys : keyGroups) {
+                        List<String> wrappedKeys = this.acquireKeys(keys);
+                        List<byte[]> keysAndArgs = new ArrayList<>();
+                        wrappedKeys.forEach(key -> keysAndArgs.add(key.getBytes()));
+                        this.acquireArgs(false).forEach(arg -> keysAndArgs.add(arg.getBytes()));
+                        connection.evalSha(sha, ReturnType.VALUE, wrappedKeys.size(), keysAndArgs.toArray(new byte[0][]));
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                // maybe the script wasn't loaded, rollback and try again one by one
+                log.debug("pipelined acquisition failed, fallback to one by one: {}", e.getLocalizedMessage());
+                keyGroups.forEach(keys -> this.releaseRemote(keys, false));
+            }
+            if (results != null && results.size() == keyGroups.size()) {
+                List<Boolean> locked = new ArrayList<>(keyGroups.size());
+                for (int i = 0; i < keyGroups.size(); i++) {
+                    locked.add(this.checkAcquired(keyGroups.get(i), String.valueOf(results.get(i))));
+                }
+                return locked;
+            }
+        }
+        List<Boolean> locked = new ArrayList<>(keyGroups.size());
+        for (List<String> keys : keyGroups) {
+            locked.add(this.tryLockRemote(keys, false, false));
+        }
+        return locked;
+    }
+
+    // the KEYS of acquire script
+    private List<String> acquireKeys(List<String> keys) {
+        return props.isFair() ? fairKeys(keys) : wrapKeys(keys);
+    }
+
+    // the ARGV of acquire script
+    private List<String> acquireArgs(boolean waiting) {
+        String expire = String.valueOf(props.getExpireMs());
+        if (props.isFair()) {
+            return Arrays.asList(token, expire, waiting ? "1" : "0", props.getChannel(), String.valueOf(props.getPrefix().length()));
+        }
+        String holderChannel = waiting && props.getAffinityMs() > 0 ? props.getChannel() : "";
+        String readerChannel = waiting ? props.getChannel() : "";
+        return Arrays.asList(token, expire, holderChannel, String.valueOf(props.getPrefix().length()), readerChannel);
+    }
+
+    // check the acquire script's result, and cache the held key if failed
+    private boolean checkAcquired(List<String> keys, String result) {
+        if (StringUtils.equalsIgnoreCase(result, "ok")) {
+            return true;
+        }
+        if (StringUtils.isNotEmpty(result)) {
+            this.cacheRemoteHeld(keys, result);
+        }
+        return false;
+    }
+
+    // check whether some key is known to be held by others
+    private boolean isRemoteHeld(List<String> keys) {
+        if (remoteHeldKeys.isEmpty()) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            Long deadline = remoteHeldKeys.get(key);
+            if (deadline == null) {
+                continue;
+            }
+            if (deadline > now) {
+                return true;
+            }
+            remoteHeldKeys.remove(key, deadline);
+        }
+        return false;
+    }
+
+    // cache the held key by the acquire script's result `index:pttl`
+    private void cacheRemoteHeld(List<String> keys, String result) {
+        if (props.getNegativeCacheMs() <= 0) {
+            return;
+        }
+        String[] parts = StringUtils.split(result, ':');
+        if (parts.length != 2 || !StringUtils.isNumeric(parts[0])) {
+            log.warn("tryLock failed: {}", result);
             return;
         }
-        log.trace("flush dlock's expired time: {}", lockedKeys);
-        template.executePipelined((RedisCallback<Object>) connection -> {
-            for (String key : wrapKeys(lockedKeys)) {
-                connection.expire(key.getBytes(), props.getExpireSecond());
+        int index = Integer.parseInt(parts[0]) - 1;
+        long pttl = NumberUtils.toLong(parts[1], -1);
+        if (index < 0 || index >= keys.size()) {
+            return;
+        }
+        long cacheMs = pttl > 0 ? Math.min(pttl, props.getNegativeCacheMs()) : props.getNegativeCacheMs();
+        remoteHeldKeys.put(keys.get(index), System.currentTimeMillis() + cacheMs);
+    }
+
+    // try register the reader's fields in redis chunk by chunk, and rollback if some chunk failed.
+    // the negative cache isn't used, because the key held by readers is also cached.
+    private boolean tryLockSharedRemote(Map<String, String> fields, boolean waiting) {
+        monitor.blockIfRisk();
+        String expire = String.valueOf(props.getExpireMs());
+        String holderChannel = waiting && props.getAffinityMs() > 0 ? props.getChannel() : "";
+        String prefixLen = String.valueOf(props.getPrefix().length());
+        Map<String, String> lockedFields = new LinkedHashMap<>();
+        for (List<String> chunkKeys : this.splitKeys(new ArrayList<>(fields.keySet()))) {
+            List<String> args = new ArrayList<>(Arrays.asList(expire, holderChannel, prefixLen));
+            chunkKeys.forEach(key -> args.add(fields.get(key)));
+            String result = template.execute(this.sharedAcquireScript, wrapKeys(chunkKeys), args.toArray());
+            if (!this.checkAcquired(chunkKeys, result)) {
+                // the concurrent local reader may be using the same field, only delete the fields nobody else shares
+                shares.rollback(lockedFields, rollbackFields -> this.releaseSharedRemote(rollbackFields, false));
+                return false;
+            }
+            chunkKeys.forEach(key -> lockedFields.put(key, fields.get(key)));
+        }
+        return true;
+    }
+
+    // delete the reader's fields in redis, and notify waiters if the last reader left
+    private void releaseSharedRemote(Map<String, String> fields, boolean strict) {
+        if (fields.isEmpty()) {
+            return;
+        }
+        String prefixLen = String.valueOf(props.getPrefix().length());
+        List<String> keys = new ArrayList<>(fields.keySet());
+        long count = 0;
+        for (List<String> chunkKeys : this.splitKeys(keys)) {
+            List<String> args = new ArrayList<>(chunkKeys.size() * 2 + 1);
+            args.add(prefixLen);
+            chunkKeys.forEach(key -> args.add(fields.get(key)));
+            chunkKeys.forEach(key -> args.add(monitor.channelOf(key)));
+            Long result = template.execute(this.sharedReleaseScript, wrapKeys(chunkKeys), args.toArray());
+            count += result == null ? 0 : result;
+        }
+        monitor.notifyUnlock(keys);
+        if (strict && count < keys.size()) {
+            log.warn("some shared keys were lost before unlock: {}", keys);
+        }
+    }
+
+    // delete the specified keys in redis if they are still ours, and publish the notification in the same script
+    private void releaseRemote(List<String> keys) {
+        this.releaseRemote(keys, true);
+    }
+
+    // delete the specified keys in redis, warn if some keys were lost and it's strict
+    private void releaseRemote(List<String> keys, boolean strict) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        String prefixLen = String.valueOf(props.getPrefix().length());
+        long count = 0;
+        for (List<String> slotKeys : this.splitKeys(keys)) {
+            Long result;
+            if (props.isFair()) {
+                result = template.execute(this.releaseScript, fairKeys(slotKeys), token, prefixLen, props.getChannel());
+            } else {
+                List<String> args = new ArrayList<>(slotKeys.size() + 2);
+                args.add(token);
+                args.add(prefixLen);
+                slotKeys.forEach(key -> args.add(monitor.channelOf(key)));
+                result = template.execute(this.releaseScript, wrapKeys(slotKeys), args.toArray());
+            }
+            count += result == null ? 0 : result;
+        }
+        monitor.notifyUnlock(keys); // Give the current JVM a small stove
+        if (strict && count < keys.size()) {
+            log.warn("some keys were lost before unlock: {}", keys);
+        }
+    }
+
+    // withdraw the exclusive waiter of current node after it gave up, the dequeue and mark deletion are token-checked
+    private void withdrawRemote(List<String> keys) {
+        if (props.isFair()) {
+            this.dequeueRemote(keys);
+        }
+        String prefixLen = String.valueOf(props.getPrefix().length());
+        try {
+            for (List<String> slotKeys : this.splitKeys(keys)) {
+                List<String> args = new ArrayList<>(slotKeys.size() + 2);
+                args.add(token);
+                args.add(prefixLen);
+                slotKeys.forEach(key -> args.add(monitor.channelOf(key)));
+                template.execute(this.withdrawScript, wrapKeys(slotKeys), args.toArray());
+            }
+        } catch (Exception e) {
+            log.warn("withdraw dlock's writer failed, it will expire soon: {}", e.getLocalizedMessage());
+        }
+    }
+
+    // remove current node from the waiting queues of the specified keys
+    private void dequeueRemote(List<String> keys) {
+        RedisCallback<Object> callback = connection -> {
+            for (String key : wrapKeys(keys)) {
+                connection.zRem(queueKey(key).getBytes(), token.getBytes());
+                connection.hDel(leaseKey(key).getBytes(), token.getBytes());
             }
             return null;
-        });
+        };
+        try {
+            if (cluster) {
+                template.execute(callback); // redis cluster doesn't support pipeline
+            } else {
+                template.executePipelined(callback);
+            }
+        } catch (Exception e) {
+            log.warn("dequeue dlock's waiter failed, it will expire soon: {}", e.getLocalizedMessage());
+        }
+    }
+
+    // the channel of current node, which receives head waiter's notification in fair mode, or waiters' interest in affinity mode
+    private String waiterChannel() {
+        return props.getChannel() + ":" + token;
+    }
+
+    // renew the locks which will expire soon, in batches, and drop the lost ones
+    private void flushAllLock() {
+        queue.expireParked(System.currentTimeMillis());
+        long threshold = Math.max(props.getExpireMs() / 2, props.getFlushIntervalMs() * 2L);
+        long before = System.currentTimeMillis() + threshold;
+        List<String> lostKeys = queue.lost(this.flushExclusive(queue.expiringKeys(before)));
+        List<String> lostSharedKeys = this.flushShared(shares.expiringKeys(before));
+        for (DistributedSemaphore semaphore : semaphores.values()) {
+            try {
+                semaphore.flush(before);
+            } catch (Exception e) {
+                log.warn("flush semaphore[{}] failed: {}", semaphore.getName(), e.getLocalizedMessage());
+            }
+        }
+        for (DistributedRateLimiter limiter : rateLimiters.values()) {
+            try {
+                limiter.flush(System.currentTimeMillis());
+            } catch (Exception e) {
+                log.warn("flush rate limiter[{}] failed: {}", limiter.getName(), e.getLocalizedMessage());
+            }
+        }
+        if (!lostKeys.isEmpty()) {
+            log.warn("dlock's keys were lost: {}", lostKeys);
+        }
+        if (!lostSharedKeys.isEmpty()) {
+            log.warn("dlock's shared keys were lost: {}", lostSharedKeys);
+            shares.lost(lostSharedKeys);
+            lostKeys.addAll(lostSharedKeys);
+        }
+        Consumer<List<String>> listener = this.lostListener;
+        if (listener != null && !lostKeys.isEmpty()) {
+            listener.accept(lostKeys);
+        }
+    }
+
+    // renew the exclusive locks, return the lost keys with the generation of their holds
+    private Map<String, Long> flushExclusive(Map<String, Long> expiringKeys) {
+        Map<String, Long> lostKeys = new LinkedHashMap<>();
+        if (expiringKeys.isEmpty()) {
+            return lostKeys;
+        }
+        log.trace("flush dlock's expired time: {}", expiringKeys.keySet());
+        String expire = String.valueOf(props.getExpireMs());
+        String prefixLen = String.valueOf(props.getPrefix().length());
+        for (List<String> slotKeys : this.groupBySlot(new ArrayList<>(expiringKeys.keySet()))) {
+            for (int off = 0; off < slotKeys.size(); off += props.getFlushBatchSize()) {
+                List<String> batch = slotKeys.subList(off, Math.min(off + props.getFlushBatchSize(), slotKeys.size()));
+                long expireAt = System.currentTimeMillis() + props.getExpireMs();
+                List<String> lost = template.execute(this.flushScript, wrapKeys(batch), token, expire, prefixLen);
+                Set<String> batchLost = lost == null ? Collections.emptySet() : new HashSet<>(lost);
+                queue.renewed(batch.stream().filter(key -> !batchLost.contains(key)).collect(Collectors.toList()), expireAt);
+                batchLost.forEach(key -> lostKeys.put(key, expiringKeys.get(key)));
+            }
+        }
+        return lostKeys;
+    }
+
+    // renew the shared locks, return the lost keys
+    private List<String> flushShared(Map<String, String> expiringFields) {
+        List<String> lostKeys = new ArrayList<>();
+        if (expiringFields.isEmpty()) {
+            return lostKeys;
+        }
+        log.trace("flush dlock's shared expired time: {}", expiringFields.keySet());
+        String expire = String.valueOf(props.getExpireMs());
+        String prefixLen = String.valueOf(props.getPrefix().length());
+        for (List<String> slotKeys : this.groupBySlot(new ArrayList<>(expiringFields.keySet()))) {
+            for (int off = 0; off < slotKeys.size(); off += props.getFlushBatchSize()) {
+                List<String> batch = slotKeys.subList(off, Math.min(off + props.getFlushBatchSize(), slotKeys.size()));
+                List<String> args = new ArrayList<>(Arrays.asList(expire, prefixLen));
+                batch.forEach(key -> args.add(expiringFields.get(key)));
+                long expireAt = System.currentTimeMillis() + props.getExpireMs();
+                List<String> lost = template.execute(this.sharedFlushScript, wrapKeys(batch), args.toArray());
+                Set<String> batchLost = lost == null ? Collections.emptySet() : new HashSet<>(lost);
+                shares.renewed(batch.stream().filter(key -> !batchLost.contains(key)).collect(Collectors.toList()), expireAt);
+                lostKeys.addAll(batchLost);
+            }
+        }
+        return lostKeys;
+    }
+
+    // sort and deduplicate keys, which makes sure all owners acquire keys in the same order
+    private static List<String> sortKeys(Collection<String> keys) {
+        return new ArrayList<>(new TreeSet<>(keys));
+    }
+
+    // wrap keys with their waiting queues and leases, which are used by fair mode's scripts
+    private List<String> fairKeys(Collection<String> keys) {
+        List<String> wrapped = wrapKeys(keys);
+        List<String> result = new ArrayList<>(wrapped);
+        wrapped.forEach(key -> result.add(queueKey(key)));
+        wrapped.forEach(key -> result.add(leaseKey(key)));
+        return result;
+    }
+
+    // group keys by redis cluster's slot in ascending order, all keys are in one group if not cluster
+    private Collection<List<String>> groupBySlot(List<String> keys) {
+        if (!cluster || keys.size() <= 1) {
+            return Collections.singletonList(keys);
+        }
+        Map<Integer, List<String>> groups = new TreeMap<>();
+        for (String key : keys) {
+            int slot = ClusterSlotHashUtil.calculateSlot(props.getPrefix() + key);
+            groups.computeIfAbsent(slot, s -> new ArrayList<>()).add(key);
+        }
+        return groups.values();
+    }
+
+    // group keys by slot, and split the large group into chunks, so the script won't be too slow
+    private List<List<String>> splitKeys(List<String> keys) {
+        List<List<String>> result = new ArrayList<>();
+        int chunkSize = Math.max(props.getChunkSize(), 1);
+        for (List<String> slotKeys : this.groupBySlot(keys)) {
+            for (int off = 0; off < slotKeys.size(); off += chunkSize) {
+                result.add(slotKeys.subList(off, Math.min(off + chunkSize, slotKeys.size())));
+            }
+        }
+        return result;
+    }
+
+    // the waiting queue's key of lock, which is in the same slot with lock's key
+    private static String queueKey(String wrappedKey) {
+        return hashTag(wrappedKey) + QUEUE_SUFFIX;
+    }
+
+    // the waiters' lease key of lock, which is in the same slot with lock's key
+    private static String leaseKey(String wrappedKey) {
+        return hashTag(wrappedKey) + LEASE_SUFFIX;
+    }
+
+    // wrap the key by `{}` if it doesn't have hash tag, then the new key with suffix will be in the same slot
+    static String hashTag(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0 && key.indexOf('}', start + 1) > start + 1) {
+            return key;
+        }
+        return "{" + key + "}";
     }
 
     private List<String> wrapKeys(Collection<String> keys) {
@@ -196,15 +1049,133 @@ public class DistributedLock {
         return result;
     }
 
-    private String loadResource(String filename) {
-        try (InputStream is = DistributedLock.class.getClassLoader().getResourceAsStream(filename)) {
-            if (is == null) {
-                throw new IllegalStateException("can't find file: " + filename);
+    /**
+     * The asynchronous waiting of locking keys in redis, which is the async version of the blocking loop.
+     * The retry is triggered by unlock notification or the shared timer, and runs in the async executor without concurrency.
+     */
+    private class RemoteWaiting {
+        private final List<String> keys;
+        private final long deadline;
+        private final boolean exclusive;
+        private final boolean fair;
+        private final RemoteAttempt attempt;
+        private final CompletableFuture<Boolean> result;
+        private final DistributedLockWaiter waiter;
+        /**
+         * the count of pending wakeups, only the one increased it from 0 runs the retry loop
+         */
+        private final AtomicInteger wakeups = new AtomicInteger();
+        private boolean first = true;
+        private Future<?> timer;
+
+        private RemoteWaiting(List<String> keys, long deadline, boolean exclusive, RemoteAttempt attempt, CompletableFuture<Boolean> result) {
+            this.keys = keys;
+            this.deadline = deadline;
+            this.exclusive = exclusive;
+            this.fair = exclusive && props.isFair();
+            this.attempt = attempt;
+            this.result = result;
+            this.waiter = new DistributedLockWaiter(this, this::wakeup);
+        }
+
+        // listen before retry, so the unlock notification won't be missed, it's already in the async executor
+        private void start() {
+            monitor.addListener(keys, waiter);
+            if (wakeups.getAndIncrement() == 0) {
+                this.drain();
             }
-            return StreamUtils.copyToString(is, Charsets.UTF_8);
-        } catch (IOException e) {
-            throw new IllegalStateException("read file error: " + filename, e);
         }
+
+        // submit the retry loop if nobody is running it, otherwise let the runner retry again
+        private void wakeup() {
+            if (wakeups.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                asyncExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // the executor is overloaded, retry later instead of running in the notifier's thread
+                wakeups.set(0);
+                long now = System.currentTimeMillis();
+                if (now < deadline) {
+                    ScheduleUtils.runAfter((int) Math.min(deadline - now, props.getFlushIntervalMs()), this::wakeup);
+                    return;
+                }
+                // the writer's mark (if any) will expire after one lease
+                monitor.delListener(keys, waiter);
+                result.completeExceptionally(e);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                this.retry();
+                missed = wakeups.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void retry() {
+            if (result.isDone()) {
+                return;
+            }
+            waiter.reset();
+            try {
+                // the first waiting attempt must reach redis, to enqueue or notify the holder
+                if (attempt.tryLock(true, !first && !fair)) {
+                    this.finish(true, null);
+                    return;
+                }
+            } catch (Exception e) {
+                this.finish(false, e);
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (deadline <= now) {
+                this.finish(false, null);
+                return;
+            }
+            // keep the waiter's lease in queue or the writer's mark in readers' hash alive, and purge the dead ones
+            this.schedule(Math.min(deadline, now + props.getExpireMs() / 2) - now);
+            first = false;
+        }
+
+        private void schedule(long delayMs) {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            timer = ScheduleUtils.runAfter((int) delayMs, this::wakeup);
+        }
+
+        private void finish(boolean locked, Exception e) {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            monitor.delListener(keys, waiter);
+            if (!locked && exclusive) {
+                ScheduleUtils.runSeliently(() -> withdrawRemote(keys));
+            }
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(locked);
+            }
+        }
+    }
+
+    /**
+     * One attempt of locking keys in redis
+     */
+    @FunctionalInterface
+    private interface RemoteAttempt {
+        /**
+         * Try lock keys in redis once.
+         *
+         * @param waiting  whether the caller is waiting or not
+         * @param useCache whether fail fast by the negative cache or not
+         * @return success or not
+         */
+        boolean tryLock(boolean waiting, boolean useCache);
     }
 
 }
@@ -1,23 +1,28 @@
 package com.github.sisyphsu.common.cluster.dlock;
 
 import com.github.sisyphsu.common.cluster.utils.ScheduleUtils;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.Subscription;
 import org.springframework.util.CollectionUtils;
 
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
  * Monitor the distributed lock's release.
  * Will start an redis subscriber to listen unlock notification.
+ * <p>
+ * If shards were specified, the unlock notification will be published into `channel:shard` by key's hash,
+ * and the shard channel is only subscribed while there are local waiters on its keys.
+ * <p>
+ * If the lock's prefix was specified, it will also listen the keyspace's `expired` and `del` events of locks,
+ * which requires redis's `notify-keyspace-events` contains `Kgx`. The keyspace events of all locks are received,
+ * but only the keys whose shard channel is subscribed will be handled.
  *
  * @author sulin
  * @since 2018-11-05 11:37:01
@@ -26,49 +31,145 @@ import java.util.function.Supplier;
 public class DistributedLockMonitor {
 
     private static final String KEY_SEPARATOR = ",";
+    private static final String INTEREST_PREFIX = "?";
+    private static final String KEYSPACE_PATTERN = "__keyspace@*__:";
+    private static final String KEYSPACE_SEPARATOR = "__:";
 
     private String channel;
+    private int shards;
+    private String keyspacePrefix;
     private Supplier<RedisConnection> supplier;
-    private final Multimap<String, Semaphore> semaphoneMap = ArrayListMultimap.create();
+    /**
+     * The local waiters of every key, the notify path walks it without lock
+     */
+    private final Map<String, Set<DistributedLockWaiter>> waiterMap = new ConcurrentHashMap<>();
+    /**
+     * The local waiters' count of every shard channel, guarded by itself
+     */
+    private final int[] shardRefs;
+    /**
+     * The additional channels to subscribe, guarded by shardRefs
+     */
+    private final Set<String> channels = new HashSet<>();
+    /**
+     * The listener of all unlocked keys, which is called before waiters are signaled
+     */
+    private volatile Consumer<Collection<String>> unlockListener;
+    /**
+     * Whether the unlock listener needs notification or not now, the message won't be parsed if nobody needs it
+     */
+    private volatile BooleanSupplier unlockListenerActive;
+    /**
+     * The listener of other nodes' interest, which means they are waiting for the keys held by current node
+     */
+    private volatile Consumer<Collection<String>> interestListener;
+    /**
+     * The subscription of unlock notification, null if not started
+     */
+    private volatile Subscription subscription;
 
     public DistributedLockMonitor(String channel, Supplier<RedisConnection> supplier) {
+        this(channel, 0, null, supplier);
+    }
+
+    /**
+     * Initialize monitor and start the subscriber
+     *
+     * @param channel        unlock notification's channel
+     * @param shards         the count of shard channels, 0 means use the channel only
+     * @param keyspacePrefix the lock's prefix in redis, enable keyspace notification if not null
+     * @param supplier       redis connection's supplier
+     */
+    public DistributedLockMonitor(String channel, int shards, String keyspacePrefix, Supplier<RedisConnection> supplier) {
         this.channel = channel;
+        this.shards = Math.max(shards, 0);
+        this.shardRefs = new int[this.shards];
+        this.keyspacePrefix = keyspacePrefix;
         this.supplier = supplier;
         this.startSubscribe();
     }
 
+    /**
+     * Fetch the channel of the specified key's unlock notification.
+     *
+     * @param key lock's key
+     * @return channel
+     */
+    public String channelOf(String key) {
+        return shards == 0 ? channel : channel + ":" + shardOf(key);
+    }
+
     /**
      * start unlock notification's subscriber
      */
     private void startSubscribe() {
         RedisConnection connection = supplier.get();
         if (connection == null) {
-            ScheduleUtils.runEvery(1000, this::startSubscribe);
+            ScheduleUtils.runAfter(1000, this::startSubscribe);
             return;
         }
         log.info("start unlock notification's subscriber");
         connection.subscribe(this::onMessage, this.channel.getBytes());
+        if (keyspacePrefix != null) {
+            log.info("start keyspace notification's subscriber");
+            connection.getSubscription().pSubscribe((KEYSPACE_PATTERN + keyspacePrefix + "*").getBytes());
+        }
+        synchronized (shardRefs) {
+            this.subscription = connection.getSubscription();
+            for (String ch : channels) {
+                subscription.subscribe(ch.getBytes());
+            }
+            for (int shard = 0; shard < shards; shard++) {
+                if (shardRefs[shard] > 0) {
+                    subscription.subscribe(shardChannel(shard));
+                }
+            }
+        }
     }
 
     /**
-     * Send the specified key's unlock notification.
+     * Subscribe an additional channel of unlock notification.
      *
-     * @param keys the keys was unlocked
+     * @param channel channel's name
      */
-    public void publishUnlock(Collection<String> keys) {
-        this.notifyUnlock(keys); // Give the current JVM a small stove
-        RedisConnection connection = supplier.get();
-        if (connection == null) {
-            log.warn("get redis connection failed, will not publish unlock notification.");
-            return;
-        }
-        try {
-            connection.publish(channel.getBytes(), StringUtils.join(keys, KEY_SEPARATOR).getBytes());
-        } finally {
-            connection.close();
+    public void addChannel(String channel) {
+        synchronized (shardRefs) {
+            if (channels.add(channel) && subscription != null) {
+                subscription.subscribe(channel.getBytes());
+            }
         }
     }
 
+    /**
+     * Set the listener of all unlocked keys, no matter there are local waiters or not.
+     *
+     * @param listener unlocked keys' listener
+     */
+    public void setUnlockListener(Consumer<Collection<String>> listener) {
+        this.setUnlockListener(listener, () -> true);
+    }
+
+    /**
+     * Set the listener of all unlocked keys, which is only called while it's active.
+     *
+     * @param listener unlocked keys' listener
+     * @param active   whether the listener needs notification now
+     */
+    public void setUnlockListener(Consumer<Collection<String>> listener, BooleanSupplier active) {
+        this.unlockListenerActive = active;
+        this.unlockListener = listener;
+    }
+
+    /**
+     * Set the listener of other nodes' interest, the interest message is like `?key`.
+     * The listener is called in redis's subscriber thread, it mustn't access redis synchronously.
+     *
+     * @param listener interested keys' listener
+     */
+    public void setInterestListener(Consumer<Collection<String>> listener) {
+        this.interestListener = listener;
+    }
+
     /**
      * Check if the redis server was failed, block until it recover.
      */
@@ -77,38 +178,102 @@ public class DistributedLockMonitor {
     }
 
     /**
-     * Add specified key's unlock semaphore.
+     * Add specified keys' unlock waiter.
      *
-     * @param keys key name
-     * @param sema semaphore
+     * @param keys   key name
+     * @param waiter the waiter to signal
      */
-    public void addListener(Collection<String> keys, Semaphore sema) {
-        synchronized (this.semaphoneMap) {
-            for (String key : keys) {
-                this.semaphoneMap.put(key, sema);
-            }
+    void addListener(Collection<String> keys, DistributedLockWaiter waiter) {
+        for (String key : keys) {
+            waiterMap.compute(key, (k, waiters) -> {
+                if (waiters == null) {
+                    waiters = ConcurrentHashMap.newKeySet();
+                }
+                waiters.add(waiter);
+                return waiters;
+            });
+            this.refShard(key, 1);
         }
     }
 
     /**
-     * Delete specified key's semaphore
+     * Delete specified keys' unlock waiter
      *
-     * @param keys key name
-     * @param sema semaphore
-     */
-    public void delListener(Collection<String> keys, Semaphore sema) {
-        synchronized (semaphoneMap) {
-            for (String key : keys) {
-                if (!semaphoneMap.remove(key, sema)) {
-                    log.warn("delete unlock semaphore failed: {}", key);
+     * @param keys   key name
+     * @param waiter the waiter to delete
+     */
+    void delListener(Collection<String> keys, DistributedLockWaiter waiter) {
+        for (String key : keys) {
+            boolean[] removed = new boolean[1];
+            waiterMap.computeIfPresent(key, (k, waiters) -> {
+                removed[0] = waiters.remove(waiter);
+                return waiters.isEmpty() ? null : waiters;
+            });
+            if (!removed[0]) {
+                log.warn("delete unlock waiter failed: {}", key);
+                continue;
+            }
+            this.refShard(key, -1);
+        }
+    }
+
+    // update the waiters' count of key's shard, subscribe or unsubscribe it if need
+    private void refShard(String key, int delta) {
+        if (shards == 0) {
+            return;
+        }
+        int shard = shardOf(key);
+        synchronized (shardRefs) {
+            int refs = shardRefs[shard];
+            shardRefs[shard] = refs + delta;
+            Subscription sub = this.subscription;
+            if (sub == null) {
+                return;
+            }
+            try {
+                if (refs == 0 && delta > 0) {
+                    sub.subscribe(shardChannel(shard));
+                } else if (refs + delta == 0) {
+                    sub.unsubscribe(shardChannel(shard));
                 }
+            } catch (Exception e) {
+                log.warn("update subscription of shard[{}] failed: {}", shard, e.getLocalizedMessage());
             }
         }
     }
 
+    // check whether the shard channel of the specified key is subscribed or not, always true if not sharded
+    private boolean isShardSubscribed(String key) {
+        if (shards == 0) {
+            return true;
+        }
+        synchronized (shardRefs) {
+            return shardRefs[shardOf(key)] > 0;
+        }
+    }
+
+    private int shardOf(String key) {
+        return Math.floorMod(key.hashCode(), shards);
+    }
+
+    private byte[] shardChannel(int shard) {
+        return (channel + ":" + shard).getBytes();
+    }
+
     // redis's sub callback
     private void onMessage(Message msg, byte[] pattern) {
+        if (pattern != null && pattern.length > 0) {
+            this.onKeyspaceMessage(msg);
+            return;
+        }
         String data = new String(msg.getBody());
+        if (data.startsWith(INTEREST_PREFIX)) {
+            this.onInterestMessage(data.substring(INTEREST_PREFIX.length()));
+            return;
+        }
+        if (waiterMap.isEmpty() && !this.isUnlockListenerActive()) {
+            return;
+        }
         log.trace("receive dlock's unlock notification: {}", data);
         List<String> keys = null;
         try {
@@ -119,16 +284,61 @@ public class DistributedLockMonitor {
         this.notifyUnlock(keys);
     }
 
-    // notify that some key was unlocked by their owners.
-    private void notifyUnlock(Collection<String> keys) {
+    // check whether the unlock listener needs notification or not
+    private boolean isUnlockListenerActive() {
+        BooleanSupplier active = this.unlockListenerActive;
+        return unlockListener != null && active != null && active.getAsBoolean();
+    }
+
+    // interest's callback, some keys held by current node are wanted by others
+    private void onInterestMessage(String data) {
+        log.trace("receive dlock's interest notification: {}", data);
+        Consumer<Collection<String>> listener = this.interestListener;
+        if (listener != null) {
+            listener.accept(Arrays.asList(data.split(KEY_SEPARATOR)));
+        }
+    }
+
+    // keyspace's callback, the channel is like `__keyspace@0__:dlock:key`, and the body is event's name
+    private void onKeyspaceMessage(Message msg) {
+        if (waiterMap.isEmpty() && !this.isUnlockListenerActive()) {
+            return;
+        }
+        String event = new String(msg.getBody());
+        if (!"expired".equals(event) && !"del".equals(event)) {
+            return;
+        }
+        String channel = new String(msg.getChannel());
+        int off = channel.indexOf(KEYSPACE_SEPARATOR);
+        if (off < 0 || !channel.startsWith(keyspacePrefix, off + KEYSPACE_SEPARATOR.length())) {
+            return;
+        }
+        String key = channel.substring(off + KEYSPACE_SEPARATOR.length() + keyspacePrefix.length());
+        if (!this.isShardSubscribed(key)) {
+            return; // the pattern can't be sharded, drop it like the unsubscribed shard's notification
+        }
+        log.trace("receive dlock's keyspace notification: {} {}", event, key);
+        this.notifyUnlock(Collections.singletonList(key));
+    }
+
+    /**
+     * Notify the local listeners that some key was unlocked by their owners.
+     * The notification of other JVMs is published by the unlock script.
+     *
+     * @param keys the keys was unlocked
+     */
+    public void notifyUnlock(Collection<String> keys) {
         if (CollectionUtils.isEmpty(keys)) {
             return;
         }
-        synchronized (semaphoneMap) {
-            for (String key : keys) {
-                for (Semaphore semaphore : semaphoneMap.get(key)) {
-                    semaphore.release();
-                }
+        Consumer<Collection<String>> listener = this.unlockListener;
+        if (listener != null) {
+            listener.accept(keys);
+        }
+        for (String key : keys) {
+            Set<DistributedLockWaiter> waiters = waiterMap.get(key);
+            if (waiters != null) {
+                waiters.forEach(DistributedLockWaiter::signal);
             }
         }
     }
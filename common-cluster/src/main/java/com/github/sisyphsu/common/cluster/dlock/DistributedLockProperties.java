@@ -16,13 +16,22 @@ import org.springframework.stereotype.Component;
 public class DistributedLockProperties {
 
     /**
-     * The lock's expire time (second), default 5.
+     * The lock's lease time (millisecond), default 5000, which decides the failover time after holder crashed.
      */
-    private int expireSecond = 5;
+    private int expireMs = 5000;
     /**
-     * The lock's flush interval (second), default 1
+     * The lock's flush interval (millisecond), default 1000, should be much less than expireMs.
      */
-    private int flushIntervalSecond = 1;
+    private int flushIntervalMs = 1000;
+    /**
+     * The max count of keys renewed in one script call, default 500
+     */
+    private int flushBatchSize = 500;
+    /**
+     * The max count of keys locked in one script call, default 256.
+     * The larger key set will be split into ordered chunks, and locked chunk by chunk.
+     */
+    private int chunkSize = 256;
     /**
      * The lock's prefix, which will be used as redis prefix
      */
@@ -31,5 +40,94 @@ public class DistributedLockProperties {
      * The lock's synchronization channel.
      */
     private String channel = "#dlock:sync";
+    /**
+     * The count of unlock notification's shard channels, default 0, which means use the channel only.
+     * Enable it only after all nodes were upgraded, the old versions only listen the channel.
+     * All nodes must use the same value.
+     */
+    private int channelShards = 0;
+    /**
+     * The max time (millisecond) to remember a key is held by others, default 100, 0 means disabled.
+     * During this time, tryLock fails fast without accessing redis, unless the unlock notification was received.
+     */
+    private int negativeCacheMs = 100;
+    /**
+     * The grace time (millisecond) to keep the released lock in current node, default 0 means disabled.
+     * During this time, the lock could be acquired again locally without redis, and will be released once
+     * other nodes are waiting for it. It doesn't work in fair mode.
+     */
+    private int affinityMs = 0;
+    /**
+     * Whether the redis is cluster or not, default false. It will be detected from lettuce's connection factory.
+     * In cluster mode, keys are grouped by slot and locked slot by slot.
+     */
+    private boolean cluster = false;
+    /**
+     * Whether use fair mode or not, default false. All nodes must use the same value.
+     * In fair mode, waiters enqueue in the lock's queue, only the head could lock it and will be notified after unlock.
+     */
+    private boolean fair = false;
+    /**
+     * Whether listen the keyspace notification of locks' expiration or not, default false.
+     * If enabled, redis's `notify-keyspace-events` must contain `Kgx`.
+     * Notice: the keyspace events can't be sharded, every node receives all locks' events, and drops the events of keys
+     * whose shard channel isn't subscribed, so it costs more network and cpu in big cluster.
+     */
+    private boolean keyspaceNotify = false;
+    /**
+     * The permits (or tokens) fetched from redis in one round trip by semaphore and rate limiter, default 8.
+     * The fetched ones are shared by local threads, the idle ones are given back after one flush interval,
+     * or right away by the semaphore without local waiters.
+     */
+    private int permitBatch = 8;
+    /**
+     * The threads of lockAsync and lockReactive's executor, default 4, which runs their redis calls,
+     * so the caller's thread (maybe an event loop) and the shared schedule pool won't be blocked.
+     */
+    private int asyncPoolSize = 4;
+    /**
+     * The max pending tasks of the async executor, default 1024, the overflowed attempts will be retried later.
+     */
+    private int asyncQueueSize = 1024;
+
+    /**
+     * Use expireMs instead.
+     *
+     * @return the lock's expire time (second)
+     */
+    @Deprecated
+    public int getExpireSecond() {
+        return this.expireMs / 1000;
+    }
+
+    /**
+     * Use expireMs instead.
+     *
+     * @param expireSecond the lock's expire time (second)
+     */
+    @Deprecated
+    public void setExpireSecond(int expireSecond) {
+        this.expireMs = expireSecond * 1000;
+    }
+
+    /**
+     * Use flushIntervalMs instead.
+     *
+     * @return the lock's flush interval (second)
+     */
+    @Deprecated
+    public int getFlushIntervalSecond() {
+        return this.flushIntervalMs / 1000;
+    }
+
+    /**
+     * Use flushIntervalMs instead.
+     *
+     * @param flushIntervalSecond the lock's flush interval (second)
+     */
+    @Deprecated
+    public void setFlushIntervalSecond(int flushIntervalSecond) {
+        this.flushIntervalMs = flushIntervalSecond * 1000;
+    }
 
 }
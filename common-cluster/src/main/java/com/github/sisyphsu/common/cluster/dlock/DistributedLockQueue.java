@@ -0,0 +1,475 @@
+package com.github.sisyphsu.common.cluster.dlock;
+
+import com.github.sisyphsu.common.cluster.utils.ScheduleUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The local queue of DistributedLock's keys, which makes sure that only one owner in current JVM
+ * competes the same key in redis, and the other local owners wait in memory.
+ * If someone is waiting when the owner unlocks, the key will be handed off to it directly,
+ * without releasing it in redis.
+ * <p>
+ * The owner could acquire its keys again, which only increases the hold count.
+ * <p>
+ * If handoff was disabled (fair mode), the next local waiter still takes over the key locally, but the key is released
+ * in redis and the waiter must lock it in redis again, so it can't jump the redis queue.
+ * <p>
+ * If affinity was enabled, the released key without waiters will be parked for a while instead of releasing
+ * in redis, so it could be acquired again locally, until it expires or other nodes are interested in it.
+ *
+ * @author sulin
+ * @since 2019-05-15 11:20:13
+ */
+@Slf4j
+class DistributedLockQueue {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * The generation of holds in redis, every markHeld uses a new one, so the stale renewal's result could be detected.
+     */
+    private final AtomicLong generations = new AtomicLong();
+    /**
+     * Release the keys in redis, which isn't needed in current JVM anymore.
+     */
+    private final Consumer<List<String>> remoteReleaser;
+    /**
+     * The grace time to park the released keys, 0 means disabled
+     */
+    private final long affinityMs;
+    /**
+     * Whether hand off the key held in redis to the local waiter directly or not
+     */
+    private final boolean handoff;
+
+    DistributedLockQueue(Consumer<List<String>> remoteReleaser) {
+        this(remoteReleaser, 0);
+    }
+
+    DistributedLockQueue(Consumer<List<String>> remoteReleaser, long affinityMs) {
+        this(remoteReleaser, affinityMs, true);
+    }
+
+    DistributedLockQueue(Consumer<List<String>> remoteReleaser, long affinityMs, boolean handoff) {
+        this.remoteReleaser = remoteReleaser;
+        this.affinityMs = affinityMs;
+        this.handoff = handoff;
+    }
+
+    /**
+     * Acquire the specified keys in order, block until success or timeout.
+     *
+     * @param keys     sorted keys
+     * @param owner    lock's owner
+     * @param deadline deadline in milliseconds
+     * @return success or not
+     */
+    boolean acquire(List<String> keys, Object owner, long deadline) {
+        for (int i = 0; i < keys.size(); i++) {
+            if (!this.acquireOne(keys.get(i), owner, deadline)) {
+                this.release(keys.subList(0, i), owner);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Acquire the specified keys in order without blocking thread, the busy key will be waited by an asynchronous waiter,
+     * and the acquisition continues in the shared pool after it was handed off, or fails after the deadline.
+     *
+     * @param keys     sorted keys
+     * @param owner    lock's owner
+     * @param deadline deadline in milliseconds
+     * @return the future of result
+     */
+    CompletableFuture<Boolean> acquireAsync(List<String> keys, Object owner, long deadline) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        this.acquireAsync(keys, 0, owner, deadline, result);
+        return result;
+    }
+
+    /**
+     * Try acquire the specified keys without blocking.
+     *
+     * @param keys  sorted keys
+     * @param owner lock's owner
+     * @return success or not
+     */
+    boolean tryAcquire(List<String> keys, Object owner) {
+        return this.acquire(keys, owner, 0);
+    }
+
+    /**
+     * Release the specified keys, hand off them to the next local waiter if exists,
+     * otherwise release them in redis. Reentrant holds only decrease the hold count.
+     *
+     * @param keys  the keys to release
+     * @param owner lock's owner
+     * @throws IllegalMonitorStateException if some key is held by another owner, nothing will be released
+     */
+    void release(List<String> keys, Object owner) {
+        // only the owner could change the held entry's owner, so check all keys before releasing any of them
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.owner != null && entry.owner != owner) {
+                    throw new IllegalMonitorStateException("key[" + key + "] isn't held by " + owner);
+                }
+            }
+        }
+        List<String> remoteKeys = new ArrayList<>();
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                log.warn("release unknown key: {}", key);
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.owner != owner) {
+                    log.warn("release key[{}] which isn't hold by {}", key, owner);
+                    continue;
+                }
+                if (--entry.holds > 0) {
+                    continue;
+                }
+                DistributedLockWaiter next = entry.waiters.poll();
+                if (next != null) {
+                    entry.owner = next.owner;
+                    entry.holds = 1;
+                    if (entry.held && !handoff) {
+                        // the waiter must compete in redis again, behind the waiters of other nodes
+                        entry.held = false;
+                        remoteKeys.add(key);
+                    }
+                    next.signal();
+                } else {
+                    entry.owner = null;
+                    if (entry.held && affinityMs > 0 && !entry.contended) {
+                        entry.parkedUntil = System.currentTimeMillis() + affinityMs;
+                    } else if (entry.held) {
+                        entry.held = false;
+                        remoteKeys.add(key);
+                    }
+                }
+                entry.contended = false;
+                this.unref(entry);
+            }
+        }
+        if (!remoteKeys.isEmpty()) {
+            remoteReleaser.accept(remoteKeys);
+        }
+    }
+
+    /**
+     * Filter the keys which isn't held in redis, must be called by the owner.
+     *
+     * @param keys keys
+     * @return the keys need to be locked in redis
+     */
+    List<String> unheld(List<String> keys) {
+        List<String> result = new ArrayList<>();
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            synchronized (entry) {
+                if (!entry.held) {
+                    result.add(key);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Mark the specified keys as held in redis, must be called by the owner.
+     *
+     * @param keys     keys
+     * @param expireAt the lease's deadline of keys in redis
+     */
+    void markHeld(List<String> keys, long expireAt) {
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            synchronized (entry) {
+                entry.held = true;
+                entry.expireAt = expireAt;
+                entry.generation = generations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Fetch the keys held in redis whose lease will expire before the specified time.
+     *
+     * @param before deadline in milliseconds
+     * @return keys need to be renewed, key -> the generation of its hold
+     */
+    Map<String, Long> expiringKeys(long before) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                if (entry.held && entry.expireAt <= before) {
+                    result.put(entry.key, entry.generation);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Update the lease's deadline of the specified keys after renewal.
+     *
+     * @param keys     the renewed keys
+     * @param expireAt new deadline in milliseconds
+     */
+    void renewed(Collection<String> keys, long expireAt) {
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.held && entry.expireAt < expireAt) {
+                    entry.expireAt = expireAt;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark the specified keys as lost in redis, their local owners still hold them but won't renew any more.
+     * The key which was released and held again since {@link #expiringKeys(long)} isn't lost, it's a new hold.
+     *
+     * @param keys the lost keys, key -> the generation of its hold
+     * @return the keys which were really lost
+     */
+    List<String> lost(Map<String, Long> keys) {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Long> lostKey : keys.entrySet()) {
+            Entry entry = entries.get(lostKey.getKey());
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                if (!entry.held || entry.generation != lostKey.getValue()) {
+                    continue;
+                }
+                result.add(entry.key);
+                entry.held = false;
+                if (entry.refs <= 0) {
+                    entry.removed = true;
+                    entries.remove(entry.key, entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fetch all keys held in redis by current JVM.
+     *
+     * @return keys
+     */
+    List<String> heldKeys() {
+        List<String> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.held) {
+                result.add(entry.key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Release the parked keys because other nodes are waiting for them,
+     * the keys in use will be released in redis after unlock directly.
+     *
+     * @param keys the keys which other nodes are interested in
+     */
+    void unpark(Collection<String> keys) {
+        List<String> remoteKeys = new ArrayList<>();
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.owner != null) {
+                    entry.contended = true;
+                } else if (this.unparkEntry(entry)) {
+                    remoteKeys.add(key);
+                }
+            }
+        }
+        if (!remoteKeys.isEmpty()) {
+            remoteReleaser.accept(remoteKeys);
+        }
+    }
+
+    /**
+     * Release the parked keys whose grace time is over.
+     *
+     * @param now current time in milliseconds
+     */
+    void expireParked(long now) {
+        List<String> remoteKeys = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.owner != null || !entry.held || entry.parkedUntil > now) {
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.owner == null && entry.parkedUntil <= now && this.unparkEntry(entry)) {
+                    remoteKeys.add(entry.key);
+                }
+            }
+        }
+        if (!remoteKeys.isEmpty()) {
+            remoteReleaser.accept(remoteKeys);
+        }
+    }
+
+    // mark the parked entry as unheld and remove it if useless, must be called in synchronized block
+    private boolean unparkEntry(Entry entry) {
+        if (!entry.held || entry.removed) {
+            return false;
+        }
+        entry.held = false;
+        if (entry.refs <= 0) {
+            entry.removed = true;
+            entries.remove(entry.key, entry);
+        }
+        return true;
+    }
+
+    // acquire one key, block until success or timeout
+    private boolean acquireOne(String key, Object owner, long deadline) {
+        Entry entry = this.ref(key);
+        DistributedLockWaiter waiter;
+        synchronized (entry) {
+            if (entry.owner == null && entry.waiters.isEmpty()) {
+                entry.owner = owner;
+                entry.holds = 1;
+                return true;
+            }
+            if (entry.owner == owner) {
+                entry.holds++;
+                this.unref(entry); // reentrant hold don't need another reference
+                return true;
+            }
+            if (deadline <= System.currentTimeMillis()) {
+                this.unref(entry);
+                return false;
+            }
+            waiter = new DistributedLockWaiter(owner);
+            entry.waiters.addLast(waiter);
+        }
+        waiter.await(deadline);
+        synchronized (entry) {
+            if (waiter.isSignaled()) {
+                return true;
+            }
+            entry.waiters.remove(waiter);
+            this.unref(entry);
+            return false;
+        }
+    }
+
+    // acquire keys from the specified index, wait the busy key asynchronously and continue after it was handed off
+    private void acquireAsync(List<String> keys, int from, Object owner, long deadline, CompletableFuture<Boolean> result) {
+        for (int i = from; i < keys.size(); i++) {
+            Entry entry = this.ref(keys.get(i));
+            long waitMs;
+            synchronized (entry) {
+                if (entry.owner == null && entry.waiters.isEmpty()) {
+                    entry.owner = owner;
+                    entry.holds = 1;
+                    continue;
+                }
+                if (entry.owner == owner) {
+                    entry.holds++;
+                    this.unref(entry);
+                    continue;
+                }
+                waitMs = deadline - System.currentTimeMillis();
+                if (waitMs > 0) {
+                    int next = i + 1;
+                    DistributedLockWaiter waiter = new DistributedLockWaiter(owner, () -> this.acquireAsync(keys, next, owner, deadline, result));
+                    entry.waiters.addLast(waiter);
+                    List<String> acquired = keys.subList(0, i);
+                    ScheduleUtils.runAfter((int) waitMs, () -> this.expireWaiter(entry, waiter, acquired, owner, result));
+                    return;
+                }
+                this.unref(entry);
+            }
+            this.release(keys.subList(0, i), owner);
+            result.complete(false);
+            return;
+        }
+        result.complete(true);
+    }
+
+    // fail the asynchronous waiter if it wasn't handed off before deadline
+    private void expireWaiter(Entry entry, DistributedLockWaiter waiter, List<String> acquired, Object owner,
+                              CompletableFuture<Boolean> result) {
+        synchronized (entry) {
+            if (waiter.isSignaled()) {
+                return;
+            }
+            entry.waiters.remove(waiter);
+            this.unref(entry);
+        }
+        this.release(acquired, owner);
+        result.complete(false);
+    }
+
+    // fetch the entry of specified key and increase its reference
+    private Entry ref(String key) {
+        while (true) {
+            Entry entry = entries.computeIfAbsent(key, Entry::new);
+            synchronized (entry) {
+                if (!entry.removed) {
+                    entry.refs++;
+                    return entry;
+                }
+            }
+        }
+    }
+
+    // decrease the reference of specified entry, remove it if useless, must be called in synchronized block
+    private void unref(Entry entry) {
+        entry.refs--;
+        if (entry.refs <= 0 && !entry.held) {
+            entry.removed = true;
+            entries.remove(entry.key, entry);
+        }
+    }
+
+    /**
+     * The local status of one key
+     */
+    private static class Entry {
+        private final String key;
+        private final Deque<DistributedLockWaiter> waiters = new ArrayDeque<>();
+        private Object owner;
+        private int holds;
+        private int refs;
+        private volatile boolean held;
+        private volatile long expireAt;
+        private long generation;
+        private volatile long parkedUntil;
+        private boolean contended;
+        private boolean removed;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+    }
+
+}
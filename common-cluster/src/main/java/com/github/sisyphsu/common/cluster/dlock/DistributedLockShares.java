@@ -0,0 +1,282 @@
+package com.github.sisyphsu.common.cluster.dlock;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The local readers of DistributedLock's shared keys, all readers in current JVM share one field in redis's hash.
+ * <p>
+ * The field is `token:epoch`, every new entry uses a new epoch, so the late release
+ * of the old field won't delete the new field registered by the next reader.
+ *
+ * @author sulin
+ * @since 2019-05-20 14:32:08
+ */
+class DistributedLockShares {
+
+    private final String token;
+    private final AtomicLong epochs = new AtomicLong();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * The count of gated entries, which may include the expired gates
+     */
+    private final AtomicInteger gates = new AtomicInteger();
+
+    DistributedLockShares(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Increase the local readers' count of the specified keys.
+     *
+     * @param keys sorted keys
+     * @return the reader's field of keys which need to be registered in redis, key -> field
+     */
+    Map<String, String> acquire(List<String> keys) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String key : keys) {
+            while (true) {
+                Entry entry = entries.computeIfAbsent(key, k -> new Entry(epochs.incrementAndGet()));
+                synchronized (entry) {
+                    if (entry.removed) {
+                        continue;
+                    }
+                    entry.count++;
+                    if (!entry.held) {
+                        result.put(key, this.field(entry));
+                    }
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rollback the fields registered by one failed acquisition.
+     * The field is deleted only if no other local reader shares it, and the deletion runs in the entry's lock,
+     * so the concurrent reader of the same entry won't register the field in the meantime.
+     *
+     * @param fields  the registered fields, key -> field
+     * @param remover the remover of fields in redis
+     */
+    void rollback(Map<String, String> fields, Consumer<Map<String, String>> remover) {
+        fields.forEach((key, field) -> {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return;
+            }
+            synchronized (entry) {
+                if (!entry.held && entry.count == 1 && field.equals(this.field(entry))) {
+                    remover.accept(Collections.singletonMap(key, field));
+                }
+            }
+        });
+    }
+
+    /**
+     * Gate the held keys because some writer is waiting for them, until the specified time.
+     *
+     * @param keys  the keys wanted by writer
+     * @param until the gate's deadline in milliseconds
+     */
+    void gate(Collection<String> keys, long until) {
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.held && entry.gatedUntil < until) {
+                    if (entry.gatedUntil == 0) {
+                        gates.incrementAndGet();
+                    }
+                    entry.gatedUntil = until;
+                }
+            }
+        }
+    }
+
+    /**
+     * Open the gate of the specified keys, because the writer got the lock or gave up.
+     *
+     * @param keys the unlocked keys
+     */
+    void ungate(Collection<String> keys) {
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                this.clearGate(entry);
+            }
+        }
+    }
+
+    /**
+     * Check whether some key was gated, it's used to skip the unnecessary unlock notification.
+     *
+     * @return gated or not
+     */
+    boolean hasGate() {
+        return gates.get() > 0;
+    }
+
+    /**
+     * Check whether some of the specified keys is gated, the new reader should wait until the current readers left.
+     *
+     * @param keys keys
+     * @return gated or not
+     */
+    boolean isGated(List<String> keys) {
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.held && entry.gatedUntil > now) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark the specified keys as registered in redis.
+     *
+     * @param keys     keys
+     * @param expireAt the lease's deadline of keys in redis
+     */
+    void markHeld(Collection<String> keys, long expireAt) {
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            synchronized (entry) {
+                if (entry.count > 0) {
+                    entry.held = true;
+                    entry.expireAt = expireAt;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decrease the local readers' count of the specified keys.
+     *
+     * @param keys keys
+     * @return the reader's field of keys which need to be released in redis, key -> field
+     */
+    Map<String, String> release(List<String> keys) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.count <= 0 || --entry.count > 0) {
+                    continue;
+                }
+                if (entry.held) {
+                    entry.held = false;
+                    result.put(key, this.field(entry));
+                }
+                this.clearGate(entry);
+                entry.removed = true;
+                entries.remove(key, entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fetch the registered keys whose lease will expire before the specified time.
+     *
+     * @param before deadline in milliseconds
+     * @return the reader's field of keys need to be renewed, key -> field
+     */
+    Map<String, String> expiringKeys(long before) {
+        Map<String, String> result = new LinkedHashMap<>();
+        entries.forEach((key, entry) -> {
+            synchronized (entry) {
+                if (entry.held && entry.expireAt <= before) {
+                    result.put(key, this.field(entry));
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Update the lease's deadline of the specified keys after renewal.
+     *
+     * @param keys     the renewed keys
+     * @param expireAt new deadline in milliseconds
+     */
+    void renewed(Collection<String> keys, long expireAt) {
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.held && entry.expireAt < expireAt) {
+                    entry.expireAt = expireAt;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark the specified keys as lost in redis, they won't be renewed any more.
+     *
+     * @param keys the lost keys
+     */
+    void lost(Collection<String> keys) {
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                entry.held = false;
+                this.clearGate(entry);
+            }
+        }
+    }
+
+    // clear the entry's gate, must be called in the entry's lock
+    private void clearGate(Entry entry) {
+        if (entry.gatedUntil != 0) {
+            entry.gatedUntil = 0;
+            gates.decrementAndGet();
+        }
+    }
+
+    private String field(Entry entry) {
+        return token + ":" + entry.epoch;
+    }
+
+    /**
+     * The local status of one shared key
+     */
+    private static class Entry {
+        private final long epoch;
+        private int count;
+        private boolean held;
+        private long expireAt;
+        private long gatedUntil;
+        private boolean removed;
+
+        private Entry(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.github.sisyphsu.common.cluster.dlock;
+
+import com.github.sisyphsu.common.cluster.utils.ScheduleUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One waiter of DistributedLock, which parks the waiting thread until signaled.
+ * The asynchronous waiter doesn't have thread, its callback will be run in the shared pool after signaled.
+ *
+ * @author sulin
+ * @since 2019-05-15 11:02:37
+ */
+class DistributedLockWaiter {
+
+    /**
+     * The lock's owner that this waiter acts for
+     */
+    final Object owner;
+    /**
+     * The waiting thread
+     */
+    private final Thread thread;
+    /**
+     * The callback of asynchronous waiter
+     */
+    private final Runnable callback;
+    /**
+     * Whether signaled or not
+     */
+    private volatile boolean signaled;
+
+    DistributedLockWaiter(Object owner) {
+        this.owner = owner;
+        this.thread = Thread.currentThread();
+        this.callback = null;
+    }
+
+    DistributedLockWaiter(Object owner, Runnable callback) {
+        this.owner = owner;
+        this.thread = null;
+        this.callback = callback;
+    }
+
+    /**
+     * Mark this waiter as signaled and unpark its thread, or run its callback asynchronously,
+     * so the signaling side won't run it while holding locks.
+     */
+    void signal() {
+        this.signaled = true;
+        if (callback != null) {
+            ScheduleUtils.runAsync(callback);
+        } else {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Clear the signal, so the waiter could be reused by its thread.
+     */
+    void reset() {
+        this.signaled = false;
+    }
+
+    /**
+     * Check whether signaled or not
+     *
+     * @return signaled
+     */
+    boolean isSignaled() {
+        return signaled;
+    }
+
+    /**
+     * Park the current thread until signaled or the deadline comes, interruption will be ignored.
+     *
+     * @param deadline deadline in milliseconds
+     * @return signaled or not
+     */
+    boolean await(long deadline) {
+        while (!signaled) {
+            long waitMs = deadline - System.currentTimeMillis();
+            if (waitMs <= 0) {
+                break;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitMs));
+            Thread.interrupted();
+        }
+        return signaled;
+    }
+
+}
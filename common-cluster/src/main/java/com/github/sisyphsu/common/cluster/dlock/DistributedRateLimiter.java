@@ -0,0 +1,180 @@
+package com.github.sisyphsu.common.cluster.dlock;
+
+import com.github.sisyphsu.common.cluster.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The distributed rate limiter based on redis's token bucket, which is created by DistributedLock.
+ * <p>
+ * The bucket is refilled by redis's time in script, so the nodes' clock won't affect it.
+ * The tokens are fetched in batches and consumed by local threads, the unused ones are given back to the bucket
+ * after one flush interval, and no batch is fetched while the bucket is less than half full.
+ *
+ * @author sulin
+ * @since 2019-05-22 14:06:51
+ */
+@Slf4j
+public class DistributedRateLimiter {
+
+    private static final String ACQUIRE_FILE = "lua/dlock-rate-acquire.lua";
+
+    private final StringRedisTemplate template;
+    private final DistributedLockProperties props;
+    private final String name;
+    private final int rate;
+    private final int burst;
+
+    private final RedisScript<Long> acquireScript;
+    /**
+     * the token bucket in redis
+     */
+    private final List<String> redisKeys;
+
+    /**
+     * the tokens fetched by current node, guarded by this
+     */
+    private int tokens;
+    /**
+     * the deadline of the fetched tokens, guarded by this
+     */
+    private long tokensExpireAt;
+    /**
+     * the expired tokens which should be given back to the bucket by next round trip, guarded by this
+     */
+    private int staleTokens;
+
+    DistributedRateLimiter(StringRedisTemplate template, DistributedLockProperties props, String name, int rate, int burst) {
+        if (rate <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("rate and burst must be positive: " + rate + ", " + burst);
+        }
+        this.template = template;
+        this.props = props;
+        this.name = name;
+        this.rate = rate;
+        this.burst = burst;
+        this.acquireScript = RedisUtils.loadScript(ACQUIRE_FILE, Long.class);
+        this.redisKeys = Collections.singletonList(props.getPrefix() + "rate:" + name);
+    }
+
+    /**
+     * Fetch the rate limiter's name
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Acquire the specified tokens, block until the bucket was refilled.
+     * Fail fast if the bucket can't be refilled before timeout.
+     *
+     * @param permits   the tokens' count
+     * @param timeoutMS block time
+     * @return whether success or not
+     */
+    public boolean acquire(int permits, int timeoutMS) {
+        long deadline = System.currentTimeMillis() + timeoutMS;
+        DistributedLockWaiter waiter = null;
+        while (true) {
+            long waitMs = this.tryAcquireOrWait(permits);
+            if (waitMs <= 0) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            if (now + waitMs > deadline) {
+                return false;
+            }
+            log.debug("rate limiter's tokens are not enough, wait {}ms: {}", waitMs, name);
+            // nobody signals the refill, the waiter is only used to park until the hinted time
+            if (waiter == null) {
+                waiter = new DistributedLockWaiter(Thread.currentThread());
+            }
+            waiter.await(now + waitMs);
+        }
+    }
+
+    /**
+     * Try acquire the specified tokens without waiting.
+     * The local tokens are used first, and redis will be accessed only if they are not enough.
+     *
+     * @param permits the tokens' count
+     * @return whether success or not
+     */
+    public boolean tryAcquire(int permits) {
+        return this.tryAcquireOrWait(permits) <= 0;
+    }
+
+    /**
+     * Give the expired tokens back to the bucket, it's invoked by DistributedLock's flush thread.
+     *
+     * @param now the current time, all tokens are given back if it's Long.MAX_VALUE
+     */
+    void flush(long now) {
+        int stale;
+        synchronized (this) {
+            this.expireTokens(now);
+            stale = staleTokens;
+            staleTokens = 0;
+        }
+        if (stale > 0) {
+            template.execute(acquireScript, redisKeys, String.valueOf(rate), String.valueOf(burst), "0", "0",
+                    String.valueOf(stale));
+        }
+    }
+
+    // try acquire tokens, return 0 if success, otherwise the milliseconds to wait for the refill
+    private long tryAcquireOrWait(int permits) {
+        if (permits <= 0 || permits > burst) {
+            throw new IllegalArgumentException("invalid permits: " + permits);
+        }
+        int need;
+        int stale;
+        synchronized (this) {
+            this.expireTokens(System.currentTimeMillis());
+            if (tokens >= permits) {
+                tokens -= permits;
+                return 0;
+            }
+            need = permits - tokens;
+            stale = staleTokens;
+            staleTokens = 0;
+        }
+        // fetch more tokens than needed, so the following acquisitions won't access redis
+        int want = Math.min(Math.max(need, props.getPermitBatch()), burst);
+        long newExpireAt = System.currentTimeMillis() + props.getFlushIntervalMs();
+        Long result = template.execute(acquireScript, redisKeys, String.valueOf(rate), String.valueOf(burst),
+                String.valueOf(want), String.valueOf(need), String.valueOf(stale));
+        if (result == null) {
+            return 1000 / rate + 1;
+        }
+        if (result < 0) {
+            return -result;
+        }
+        synchronized (this) {
+            this.expireTokens(System.currentTimeMillis());
+            tokens += result.intValue();
+            tokensExpireAt = newExpireAt;
+            if (tokens >= permits) {
+                tokens -= permits;
+                return 0;
+            }
+            // the local tokens were taken by others, retry right away
+            return 1;
+        }
+    }
+
+    // move the expired local tokens to the stale ones, instead of dropping them
+    private void expireTokens(long now) {
+        if (tokensExpireAt < now) {
+            staleTokens += tokens;
+            tokens = 0;
+        }
+    }
+
+}
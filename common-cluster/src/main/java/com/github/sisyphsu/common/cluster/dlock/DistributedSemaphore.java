@@ -0,0 +1,255 @@
+package com.github.sisyphsu.common.cluster.dlock;
+
+import com.github.sisyphsu.common.cluster.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The distributed counting semaphore based on redis, which is created by DistributedLock.
+ * <p>
+ * Every node holds one lease of permits in redis, which is a hash's field `token` and renewed like the lock.
+ * The permits are fetched in batches and shared by local threads, the idle ones are returned right away if no local
+ * thread is waiting, otherwise after one flush interval.
+ *
+ * @author sulin
+ * @since 2019-05-22 10:18:36
+ */
+@Slf4j
+public class DistributedSemaphore {
+
+    private static final String ACQUIRE_FILE = "lua/dlock-sem-acquire.lua";
+    private static final String RELEASE_FILE = "lua/dlock-sem-release.lua";
+    private static final String RENEW_FILE = "lua/dlock-sem-renew.lua";
+
+    private final StringRedisTemplate template;
+    private final DistributedLockProperties props;
+    private final DistributedLockMonitor monitor;
+    private final String token;
+    private final String name;
+    private final int permits;
+
+    private final RedisScript<Long> acquireScript;
+    private final RedisScript<Long> releaseScript;
+    private final RedisScript<Long> renewScript;
+    /**
+     * the semaphore's hash and its leases' zset in redis
+     */
+    private final List<String> redisKeys;
+    /**
+     * the pseudo key of unlock notification, waiters listen it in monitor
+     */
+    private final List<String> notifyKeys;
+
+    /**
+     * the permits held by current node in redis, guarded by this
+     */
+    private int held;
+    /**
+     * the permits in use by local threads, guarded by this
+     */
+    private int used;
+    /**
+     * the permits in use but whose lease was lost, guarded by this
+     */
+    private int orphans;
+    /**
+     * the lease's deadline of the held permits, guarded by this
+     */
+    private long expireAt;
+    /**
+     * the local threads waiting for permits, guarded by this
+     */
+    private int waiters;
+
+    DistributedSemaphore(StringRedisTemplate template, DistributedLockProperties props, DistributedLockMonitor monitor,
+                         String token, String name, int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive: " + permits);
+        }
+        this.template = template;
+        this.props = props;
+        this.monitor = monitor;
+        this.token = token;
+        this.name = name;
+        this.permits = permits;
+        this.acquireScript = RedisUtils.loadScript(ACQUIRE_FILE, Long.class);
+        this.releaseScript = RedisUtils.loadScript(RELEASE_FILE, Long.class);
+        this.renewScript = RedisUtils.loadScript(RENEW_FILE, Long.class);
+        String key = DistributedLock.hashTag(props.getPrefix() + "sem:" + name);
+        this.redisKeys = Arrays.asList(key, key + DistributedLock.LEASE_SUFFIX);
+        this.notifyKeys = Collections.singletonList("#sem:" + name);
+    }
+
+    /**
+     * Fetch the semaphore's name
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Fetch the max permits of this semaphore
+     *
+     * @return permits
+     */
+    public int getPermits() {
+        return permits;
+    }
+
+    /**
+     * Acquire the specified permits, block for a while if not enough.
+     *
+     * @param permits   the permits' count
+     * @param timeoutMS block time
+     * @return whether success or not
+     */
+    public boolean acquire(int permits, int timeoutMS) {
+        long deadline = System.currentTimeMillis() + timeoutMS;
+        if (this.tryAcquire(permits)) {
+            return true;
+        }
+        // listen before retry, so the release notification won't be missed
+        DistributedLockWaiter waiter = new DistributedLockWaiter(Thread.currentThread());
+        monitor.addListener(notifyKeys, waiter);
+        synchronized (this) {
+            waiters++;
+        }
+        try {
+            while (true) {
+                waiter.reset();
+                if (this.tryAcquire(permits)) {
+                    return true;
+                }
+                long now = System.currentTimeMillis();
+                if (deadline <= now) {
+                    return false;
+                }
+                log.debug("semaphore competition fails, enters waiting: {}", name);
+                // the crashed holder won't notify, retry after its lease expired at least
+                waiter.await(Math.min(deadline, now + props.getExpireMs()));
+            }
+        } finally {
+            synchronized (this) {
+                waiters--;
+            }
+            monitor.delListener(notifyKeys, waiter);
+        }
+    }
+
+    /**
+     * Try acquire the specified permits without waiting.
+     * The local idle permits are used first, and redis will be accessed only if they are not enough.
+     *
+     * @param permits the permits' count
+     * @return whether success or not
+     */
+    public boolean tryAcquire(int permits) {
+        if (permits <= 0 || permits > this.permits) {
+            throw new IllegalArgumentException("invalid permits: " + permits);
+        }
+        int need;
+        synchronized (this) {
+            if (held - used >= permits) {
+                used += permits;
+                return true;
+            }
+            need = permits - Math.max(held - used, 0);
+        }
+        // fetch more permits than needed, so the following acquisitions won't access redis
+        int want = Math.min(Math.max(need, props.getPermitBatch()), this.permits);
+        long newExpireAt = System.currentTimeMillis() + props.getExpireMs();
+        Long granted = template.execute(acquireScript, redisKeys, String.valueOf(this.permits), String.valueOf(want),
+                String.valueOf(need), token, String.valueOf(props.getExpireMs()));
+        synchronized (this) {
+            if (granted != null && granted > 0) {
+                held += granted.intValue();
+                expireAt = newExpireAt;
+            }
+            if (held - used >= permits) {
+                used += permits;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Release the specified permits, they are handed to the local waiters if any,
+     * otherwise returned to redis right away, and the other nodes' waiters will be notified.
+     *
+     * @param permits the permits' count
+     */
+    public void release(int permits) {
+        boolean waiting;
+        synchronized (this) {
+            int lost = Math.min(orphans, permits);
+            orphans -= lost;
+            used = Math.max(used - (permits - lost), 0);
+            waiting = waiters > 0;
+        }
+        if (waiting) {
+            monitor.notifyUnlock(notifyKeys);
+        } else {
+            this.returnIdle();
+        }
+    }
+
+    /**
+     * Return the idle permits to redis, and renew the lease if it will expire before the specified time.
+     *
+     * @param before deadline in milliseconds
+     */
+    void flush(long before) {
+        this.returnIdle();
+        boolean renew;
+        synchronized (this) {
+            renew = held > 0 && expireAt <= before;
+        }
+        if (!renew) {
+            return;
+        }
+        long newExpireAt = System.currentTimeMillis() + props.getExpireMs();
+        Long result = template.execute(renewScript, redisKeys, token, String.valueOf(props.getExpireMs()));
+        synchronized (this) {
+            if (result != null && result > 0) {
+                expireAt = newExpireAt;
+                return;
+            }
+            log.warn("semaphore's permits were lost: {} {}", name, held);
+            // the permits in use can't be returned any more
+            orphans += used;
+            used = 0;
+            held = 0;
+        }
+    }
+
+    // return the idle permits to redis and notify the waiters by the shard channel, they are kept if failed
+    private void returnIdle() {
+        int idle;
+        synchronized (this) {
+            idle = held - used;
+            held = used;
+        }
+        if (idle <= 0) {
+            return;
+        }
+        log.trace("return semaphore's idle permits: {} {}", name, idle);
+        try {
+            template.execute(releaseScript, redisKeys, token, String.valueOf(idle),
+                    monitor.channelOf(notifyKeys.get(0)), notifyKeys.get(0));
+        } catch (Exception e) {
+            log.warn("return semaphore[{}]'s permits failed: {}", name, e.getLocalizedMessage());
+            synchronized (this) {
+                held += idle;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.github.sisyphsu.common.cluster.dlock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The handle of keys locked asynchronously by DistributedLock.
+ * The handle itself is the lock's owner instead of thread, so it could be unlocked in any thread, but only once.
+ *
+ * @author sulin
+ * @since 2019-05-23 16:40:12
+ */
+public class LockHandle implements AutoCloseable {
+
+    private final DistributedLockQueue queue;
+    private final List<String> keys;
+    private final AtomicBoolean unlocked = new AtomicBoolean();
+
+    LockHandle(DistributedLockQueue queue, List<String> keys) {
+        this.queue = queue;
+        this.keys = keys;
+    }
+
+    /**
+     * Fetch the locked keys, which are sorted and deduplicated
+     *
+     * @return keys
+     */
+    public List<String> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * Unlock the keys of this handle, the repeated unlock will be ignored.
+     */
+    public void unlock() {
+        if (unlocked.compareAndSet(false, true)) {
+            queue.release(keys, this);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.unlock();
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.github.sisyphsu.common.cluster.utils;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Wrap some util methods for Redis.
+ *
+ * @author sulin
+ * @since 2019-05-09 15:02:18
+ */
+public class RedisUtils {
+
+    /**
+     * Load lua script from the specified classpath file.
+     *
+     * @param filename   script's classpath
+     * @param resultType script's result type
+     * @param <T>        generic type
+     * @return RedisScript
+     */
+    public static <T> RedisScript<T> loadScript(String filename, Class<T> resultType) {
+        try (InputStream is = RedisUtils.class.getClassLoader().getResourceAsStream(filename)) {
+            if (is == null) {
+                throw new IllegalStateException("can't find file: " + filename);
+            }
+            return new DefaultRedisScript<>(StreamUtils.copyToString(is, StandardCharsets.UTF_8), resultType);
+        } catch (IOException e) {
+            throw new IllegalStateException("read file error: " + filename, e);
+        }
+    }
+
+    /**
+     * Load lua script which returns multi-bulk reply from the specified classpath file.
+     *
+     * @param filename script's classpath
+     * @param <T>      element's type
+     * @return RedisScript
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RedisScript<List<T>> loadListScript(String filename) {
+        return (RedisScript<List<T>>) (RedisScript<?>) loadScript(filename, List.class);
+    }
+
+}
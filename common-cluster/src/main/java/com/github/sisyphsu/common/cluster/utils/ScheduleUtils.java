@@ -64,6 +64,21 @@ public class ScheduleUtils {
         }, ms, MILLISECONDS);
     }
 
+    /**
+     * Run specified function in the shared pool right away.
+     *
+     * @param exec execute body
+     */
+    public static void runAsync(Runnable exec) {
+        EXECUTOR.execute(() -> {
+            try {
+                exec.run();
+            } catch (Exception e) {
+                log.error("runAsync failed: ", e);
+            }
+        });
+    }
+
     /**
      * Run specified function infinity until it was cancelled.
      *
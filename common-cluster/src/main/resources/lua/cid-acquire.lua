@@ -0,0 +1,40 @@
+-- KEYS[1]: the bitmap of used nodeIDs
+-- KEYS[2]: the leases of nodeIDs, which is a zset of every lease's deadline
+-- KEYS[3]: the owners of nodeIDs, which is a hash of every lease's token
+-- ARGV[1]: the owner's token
+-- ARGV[2]: the lease's expire time (millisecond)
+-- ARGV[3]: the max nodeID, exclude
+-- ARGV[4]: the preferred nodeID, -1 means none
+-- ARGV[5]: the max count of expired leases purged in one call
+-- return the claimed nodeID, -1 means none
+-- all keys must be in the same slot, the default prefix `{clusterid}` is a hash tag.
+redis.replicate_commands()
+local token = ARGV[1]
+local max = tonumber(ARGV[3])
+local prefer = tonumber(ARGV[4])
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- clear the bits of crashed holders, whose lease expired without release
+local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', now - 1, 'LIMIT', 0, tonumber(ARGV[5]))
+for i = 1, #expired do
+    redis.call('ZREM', KEYS[2], expired[i])
+    redis.call('HDEL', KEYS[3], expired[i])
+    redis.call('SETBIT', KEYS[1], expired[i], 0)
+end
+
+local function claim(id)
+    redis.call('SETBIT', KEYS[1], id, 1)
+    redis.call('ZADD', KEYS[2], now + tonumber(ARGV[2]), id)
+    redis.call('HSET', KEYS[3], id, token)
+    return id
+end
+
+if prefer >= 0 and prefer < max and redis.call('GETBIT', KEYS[1], prefer) == 0 then
+    return claim(prefer)
+end
+local pos = redis.call('BITPOS', KEYS[1], 0)
+if pos >= 0 and pos < max then
+    return claim(pos)
+end
+return -1
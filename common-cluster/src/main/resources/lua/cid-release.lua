@@ -0,0 +1,13 @@
+-- KEYS[1]: the bitmap of used nodeIDs
+-- KEYS[2]: the leases of nodeIDs, which is a zset of every lease's deadline
+-- KEYS[3]: the owners of nodeIDs, which is a hash of every lease's token
+-- ARGV[1]: the nodeID
+-- ARGV[2]: the owner's token
+-- return 1 if released, 0 means the nodeID was lost
+if redis.call('HGET', KEYS[3], ARGV[1]) ~= ARGV[2] then
+    return 0
+end
+redis.call('HDEL', KEYS[3], ARGV[1])
+redis.call('ZREM', KEYS[2], ARGV[1])
+redis.call('SETBIT', KEYS[1], ARGV[1], 0)
+return 1
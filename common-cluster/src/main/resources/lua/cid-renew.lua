@@ -0,0 +1,14 @@
+-- KEYS[1]: the leases of nodeIDs, which is a zset of every lease's deadline
+-- KEYS[2]: the owners of nodeIDs, which is a hash of every lease's token
+-- ARGV[1]: the nodeID
+-- ARGV[2]: the owner's token
+-- ARGV[3]: the lease's expire time (millisecond)
+-- return 1 if renewed, 0 means the nodeID was lost
+redis.replicate_commands()
+if redis.call('HGET', KEYS[2], ARGV[1]) ~= ARGV[2] then
+    return 0
+end
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+redis.call('ZADD', KEYS[1], now + tonumber(ARGV[3]), ARGV[1])
+return 1
@@ -0,0 +1,92 @@
+-- KEYS[1...n]: the lock keys
+-- KEYS[n+1...2n]: the waiting queue of every lock, which is a zset ordered by enqueue time
+-- KEYS[2n+1...3n]: the waiters' lease of every lock, which is a hash of waiter's deadline
+-- ARGV[1]: the owner's token
+-- ARGV[2]: the lease's expire time (millisecond)
+-- ARGV[3]: whether enqueue or not if failed, 1 means true
+-- ARGV[4]: the prefix of readers' channel, notify readers after enqueued
+-- ARGV[5]: the length of keys' prefix, which won't be published
+-- only the head of every queue could lock the keys, the dead waiters will be purged from the head.
+-- the enqueued writer marks the readers' hash by field `#writer:token`, which stops new readers but doesn't hold the lock.
+redis.replicate_commands()
+local WRITER = '#writer:'
+local token = ARGV[1]
+local expire = tonumber(ARGV[2])
+local n = #KEYS / 3
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local function isFree(key)
+    local keyType = redis.call('TYPE', key)['ok']
+    if keyType == 'none' then
+        return true
+    end
+    if keyType ~= 'hash' then
+        return false
+    end
+    -- the shared lock is a hash of readers' deadline, purge the dead readers
+    local readers = redis.call('HGETALL', key)
+    local alive = 0
+    for j = 1, #readers, 2 do
+        if tonumber(readers[j + 1]) < now then
+            redis.call('HDEL', key, readers[j])
+        elseif string.sub(readers[j], 1, #WRITER) ~= WRITER then
+            alive = alive + 1
+        end
+    end
+    return alive == 0
+end
+local function markPending(key)
+    redis.call('HSET', key, WRITER .. token, now + expire)
+    if redis.call('PTTL', key) < expire then
+        redis.call('PEXPIRE', key, expire)
+    end
+    -- the reader's field is `token:epoch`, notify every reader's node once
+    local notified = {}
+    for _, field in ipairs(redis.call('HKEYS', key)) do
+        local reader = string.match(field, '^(.+):[^:]+$')
+        if reader ~= nil and string.sub(field, 1, #WRITER) ~= WRITER and notified[reader] == nil then
+            notified[reader] = true
+            redis.call('PUBLISH', ARGV[4] .. ':' .. reader, '?' .. string.sub(key, tonumber(ARGV[5]) + 1))
+        end
+    end
+end
+local free = true
+for i = 1, n do
+    local queue = KEYS[n + i]
+    local lease = KEYS[n + n + i]
+    while true do
+        local head = redis.call('ZRANGE', queue, 0, 0)[1]
+        if head == nil or head == token then
+            break
+        end
+        if tonumber(redis.call('HGET', lease, head) or '0') >= now then
+            free = false
+            break
+        end
+        redis.call('ZREM', queue, head)
+        redis.call('HDEL', lease, head)
+    end
+    if free and not isFree(KEYS[i]) then
+        free = false
+    end
+end
+if free then
+    for i = 1, n do
+        redis.call('SET', KEYS[i], token, 'PX', expire)
+        redis.call('ZREM', KEYS[n + i], token)
+        redis.call('HDEL', KEYS[n + n + i], token)
+    end
+    return 'ok'
+end
+if ARGV[3] == '1' then
+    for i = 1, n do
+        redis.call('ZADD', KEYS[n + i], 'NX', now, token)
+        redis.call('HSET', KEYS[n + n + i], token, now + expire)
+        redis.call('PEXPIRE', KEYS[n + i], expire * 2)
+        redis.call('PEXPIRE', KEYS[n + n + i], expire * 2)
+        if redis.call('TYPE', KEYS[i])['ok'] == 'hash' then
+            markPending(KEYS[i])
+        end
+    end
+end
+return ''
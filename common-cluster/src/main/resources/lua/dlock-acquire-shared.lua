@@ -0,0 +1,50 @@
+-- KEYS: the lock keys
+-- ARGV[1]: the lease's expire time (millisecond)
+-- ARGV[2]: the prefix of holders' channel, notify holders that someone is waiting if not empty
+-- ARGV[3]: the length of keys' prefix, which won't be published
+-- ARGV[4...]: the reader's field of every key
+-- return 'ok' if success, otherwise `index:pttl` of the first exclusively held or writer pending key
+-- the shared lock is a hash of readers' deadline, and its ttl is the max lease of readers.
+-- the new reader can't join the hash which has an alive field `#writer:token`, so the pending writer won't be starved.
+redis.replicate_commands()
+local WRITER = '#writer:'
+local expire = tonumber(ARGV[1])
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local result = nil
+for i = 1, #KEYS do
+    local keyType = redis.call('TYPE', KEYS[i])['ok']
+    if keyType == 'hash' then
+        if result == nil and redis.call('HEXISTS', KEYS[i], ARGV[i + 3]) == 0 then
+            local pending = 0
+            local fields = redis.call('HGETALL', KEYS[i])
+            for j = 1, #fields, 2 do
+                if string.sub(fields[j], 1, #WRITER) == WRITER then
+                    pending = math.max(pending, tonumber(fields[j + 1]))
+                end
+            end
+            if pending >= now then
+                result = i .. ':' .. (pending - now)
+            end
+        end
+    elseif keyType ~= 'none' then
+        if result == nil then
+            result = i .. ':' .. redis.call('PTTL', KEYS[i])
+        end
+        if ARGV[2] == nil or ARGV[2] == '' then
+            return result
+        end
+        local holder = redis.call('GET', KEYS[i])
+        redis.call('PUBLISH', ARGV[2] .. ':' .. holder, '?' .. string.sub(KEYS[i], tonumber(ARGV[3]) + 1))
+    end
+end
+if result ~= nil then
+    return result
+end
+for i = 1, #KEYS do
+    redis.call('HSET', KEYS[i], ARGV[i + 3], now + expire)
+    if redis.call('PTTL', KEYS[i]) < expire then
+        redis.call('PEXPIRE', KEYS[i], expire)
+    end
+end
+return 'ok'
@@ -1,14 +1,79 @@
-local params = {}
-local off = 1
+-- KEYS: the lock keys
+-- ARGV[1]: the owner's token
+-- ARGV[2]: the lease's expire time (millisecond)
+-- ARGV[3]: the prefix of holders' channel, notify holders that someone is waiting if not empty
+-- ARGV[4]: the length of keys' prefix, which won't be published
+-- ARGV[5]: the prefix of readers' channel, mark the writer as pending and notify readers if not empty
+-- return 'ok' if success, otherwise `index:pttl` of the first held key
+-- the shared lock is a hash of readers' deadline, the dead readers will be purged.
+-- the pending writer is the hash's field `#writer:token`, which stops new readers but doesn't hold the lock.
+redis.replicate_commands()
+local WRITER = '#writer:'
+local now = nil
+local function isFree(key)
+    local keyType = redis.call('TYPE', key)['ok']
+    if keyType == 'none' then
+        return true
+    end
+    if keyType ~= 'hash' then
+        return false
+    end
+    if now == nil then
+        local time = redis.call('TIME')
+        now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    end
+    local readers = redis.call('HGETALL', key)
+    local alive = 0
+    for j = 1, #readers, 2 do
+        if tonumber(readers[j + 1]) < now then
+            redis.call('HDEL', key, readers[j])
+        elseif string.sub(readers[j], 1, #WRITER) ~= WRITER then
+            alive = alive + 1
+        end
+    end
+    return alive == 0
+end
+local function markPending(key)
+    redis.call('HSET', key, WRITER .. ARGV[1], now + tonumber(ARGV[2]))
+    if redis.call('PTTL', key) < tonumber(ARGV[2]) then
+        redis.call('PEXPIRE', key, ARGV[2])
+    end
+    -- the reader's field is `token:epoch`, notify every reader's node once
+    local notified = {}
+    for _, field in ipairs(redis.call('HKEYS', key)) do
+        local reader = string.match(field, '^(.+):[^:]+$')
+        if reader ~= nil and string.sub(field, 1, #WRITER) ~= WRITER and notified[reader] == nil then
+            notified[reader] = true
+            redis.call('PUBLISH', ARGV[5] .. ':' .. reader, '?' .. string.sub(key, tonumber(ARGV[4]) + 1))
+        end
+    end
+end
+
+local notifyHolder = ARGV[3] ~= nil and ARGV[3] ~= ''
+local notifyReader = ARGV[5] ~= nil and ARGV[5] ~= ''
+local result = nil
 for i = 1, #KEYS do
-    params[off] = KEYS[i]
-    params[off + 1] = ARGV[1]
-    off = off + 2
+    if not isFree(KEYS[i]) then
+        if result == nil then
+            result = i .. ':' .. redis.call('PTTL', KEYS[i])
+        end
+        if not notifyHolder and not notifyReader then
+            return result
+        end
+        local holder = redis.pcall('GET', KEYS[i])
+        if type(holder) == 'string' then
+            if notifyHolder then
+                redis.call('PUBLISH', ARGV[3] .. ':' .. holder, '?' .. string.sub(KEYS[i], tonumber(ARGV[4]) + 1))
+            end
+        elseif notifyReader then
+            markPending(KEYS[i])
+        end
+    end
 end
-if (redis.call('MSETNX', unpack(params)) == 0) then
-    return ""
+if result ~= nil then
+    return result
 end
 for i = 1, #KEYS do
-    redis.call('EXPIRE', KEYS[i], ARGV[2])
+    redis.call('SET', KEYS[i], ARGV[1], 'PX', ARGV[2])
 end
-return "ok"
\ No newline at end of file
+return 'ok'
@@ -0,0 +1,22 @@
+-- KEYS: the lock keys
+-- ARGV[1]: the lease's expire time (millisecond)
+-- ARGV[2]: the length of keys' prefix, which won't be returned
+-- ARGV[3...]: the reader's field of every key
+-- return the keys which isn't held by the reader anymore
+redis.replicate_commands()
+local expire = tonumber(ARGV[1])
+local offset = tonumber(ARGV[2]) + 1
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local lost = {}
+for i = 1, #KEYS do
+    if redis.pcall('HEXISTS', KEYS[i], ARGV[i + 2]) == 1 then
+        redis.call('HSET', KEYS[i], ARGV[i + 2], now + expire)
+        if redis.call('PTTL', KEYS[i]) < expire then
+            redis.call('PEXPIRE', KEYS[i], expire)
+        end
+    else
+        lost[#lost + 1] = string.sub(KEYS[i], offset)
+    end
+end
+return lost
@@ -1,19 +1,16 @@
+-- KEYS: the lock keys
+-- ARGV[1]: the owner's token
+-- ARGV[2]: the lease's expire time (millisecond)
+-- ARGV[3]: the length of keys' prefix, which won't be returned
+-- return the keys which isn't held by the token anymore
 local token = ARGV[1]
-local expire = ARGV[2]
-if (token == nil) then
-    return { 'need token' }
-end
-if (expire == nil) then
-    return { 'need expire' }
-end
-local vals redis.call('MGET', unpack(KEYS))
-for i = 1, #vals do
-    if not (vals[i] == token) then
-        return { 'token error: ' + vals[i], KEYS[i] }
-    end
-end
-
+local offset = tonumber(ARGV[3]) + 1
+local lost = {}
 for i = 1, #KEYS do
-    redis.call('EXPIRE', KEYS[i], expire)
+    if redis.pcall('GET', KEYS[i]) == token then
+        redis.call('PEXPIRE', KEYS[i], ARGV[2])
+    else
+        lost[#lost + 1] = string.sub(KEYS[i], offset)
+    end
 end
-return {}
\ No newline at end of file
+return lost
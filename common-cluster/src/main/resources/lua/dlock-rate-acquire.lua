@@ -0,0 +1,33 @@
+-- KEYS[1]: the token bucket, which is a hash of `tokens` and `ts`
+-- ARGV[1]: the refill rate (tokens per second)
+-- ARGV[2]: the capacity of bucket
+-- ARGV[3]: the wanted tokens, 0 means only giving back tokens
+-- ARGV[4]: the min tokens, fail if can't acquire enough tokens
+-- ARGV[5]: the unused tokens given back by this node, they are put into bucket before acquisition
+-- return the acquired tokens if success, otherwise the negative milliseconds to wait
+redis.replicate_commands()
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local rate = tonumber(ARGV[1])
+local burst = tonumber(ARGV[2])
+local need = tonumber(ARGV[4])
+local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(bucket[1]) or burst
+local ts = tonumber(bucket[2]) or now
+tokens = math.min(burst, tokens + math.max(now - ts, 0) * rate / 1000 + (tonumber(ARGV[5]) or 0))
+local want = tonumber(ARGV[3])
+-- don't fetch more than needed while the bucket is less than half full, so other nodes won't be starved
+if tokens < burst / 2 then
+    want = need
+end
+local grant = 0
+if want > 0 and tokens >= need then
+    grant = math.min(want, math.floor(tokens))
+    tokens = tokens - grant
+end
+redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'ts', now)
+redis.call('PEXPIRE', KEYS[1], math.ceil(burst * 1000 / rate) + 1000)
+if grant > 0 or want == 0 then
+    return grant
+end
+return -math.max(math.ceil((need - tokens) * 1000 / rate), 1)
@@ -0,0 +1,46 @@
+-- KEYS[1...n]: the lock keys
+-- KEYS[n+1...2n]: the waiting queue of every lock
+-- KEYS[2n+1...3n]: the waiters' lease of every lock
+-- ARGV[1]: the owner's token
+-- ARGV[2]: the length of keys' prefix, which won't be published
+-- ARGV[3]: the prefix of waiters' channel, the head waiter's channel is `prefix:token`
+-- only the alive head waiter of every lock will be notified.
+redis.replicate_commands()
+local token = ARGV[1]
+local offset = tonumber(ARGV[2]) + 1
+local n = #KEYS / 3
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local channels = {}
+local messages = {}
+local count = 0
+for i = 1, n do
+    if redis.pcall('GET', KEYS[i]) == token then
+        redis.call('DEL', KEYS[i])
+        count = count + 1
+        local queue = KEYS[n + i]
+        local lease = KEYS[n + n + i]
+        while true do
+            local head = redis.call('ZRANGE', queue, 0, 0)[1]
+            if head == nil then
+                break
+            end
+            if tonumber(redis.call('HGET', lease, head) or '0') >= now then
+                local channel = ARGV[3] .. ':' .. head
+                if messages[channel] == nil then
+                    channels[#channels + 1] = channel
+                    messages[channel] = {}
+                end
+                local message = messages[channel]
+                message[#message + 1] = string.sub(KEYS[i], offset)
+                break
+            end
+            redis.call('ZREM', queue, head)
+            redis.call('HDEL', lease, head)
+        end
+    end
+end
+for i = 1, #channels do
+    redis.call('PUBLISH', channels[i], table.concat(messages[channels[i]], ','))
+end
+return count
@@ -0,0 +1,37 @@
+-- KEYS: the lock keys
+-- ARGV[1]: the length of keys' prefix, which won't be published
+-- ARGV[2...n+1]: the reader's field of every key
+-- ARGV[n+2...2n+1]: the unlock notification's channel of every key
+-- the notification will be published only if the last reader released, the pending writers `#writer:token` aren't readers.
+local WRITER = '#writer:'
+local function isEmpty(key)
+    for _, field in ipairs(redis.call('HKEYS', key)) do
+        if string.sub(field, 1, #WRITER) ~= WRITER then
+            return false
+        end
+    end
+    return true
+end
+local n = #KEYS
+local offset = tonumber(ARGV[1]) + 1
+local channels = {}
+local messages = {}
+local count = 0
+for i = 1, n do
+    if redis.pcall('HDEL', KEYS[i], ARGV[i + 1]) == 1 then
+        count = count + 1
+        if isEmpty(KEYS[i]) then
+            local channel = ARGV[n + i + 1]
+            if messages[channel] == nil then
+                channels[#channels + 1] = channel
+                messages[channel] = {}
+            end
+            local message = messages[channel]
+            message[#message + 1] = string.sub(KEYS[i], offset)
+        end
+    end
+end
+for i = 1, #channels do
+    redis.call('PUBLISH', channels[i], table.concat(messages[channels[i]], ','))
+end
+return count
@@ -1,17 +1,26 @@
+-- KEYS: the lock keys
+-- ARGV[1]: the owner's token
+-- ARGV[2]: the length of keys' prefix, which won't be published
+-- ARGV[3...]: the unlock notification's channel of every key
 local token = ARGV[1]
-if (token == nil) then
-    return { 'need token' }
-end
-local result = {}
-local vals redis.call('MGET', unpack(KEYS))
-for i = 1, #vals do
-    if (vals[i] == token) then
-        result[result.len] = ''
-    else
+local offset = tonumber(ARGV[2]) + 1
+local channels = {}
+local messages = {}
+local count = 0
+for i = 1, #KEYS do
+    if redis.pcall('GET', KEYS[i]) == token then
+        redis.call('DEL', KEYS[i])
+        local channel = ARGV[i + 2]
+        if messages[channel] == nil then
+            channels[#channels + 1] = channel
+            messages[channel] = {}
+        end
+        local message = messages[channel]
+        message[#message + 1] = string.sub(KEYS[i], offset)
+        count = count + 1
     end
 end
-
-for i = 1, #KEYS do
-    redis.call('EXPIRE', KEYS[i], expire)
+for i = 1, #channels do
+    redis.call('PUBLISH', channels[i], table.concat(messages[channels[i]], ','))
 end
-return 'ok'
\ No newline at end of file
+return count
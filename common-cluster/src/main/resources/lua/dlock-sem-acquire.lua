@@ -0,0 +1,32 @@
+-- KEYS[1]: the semaphore, which is a hash of every lease's permits
+-- KEYS[2]: the leases of semaphore, which is a zset of every lease's deadline
+-- ARGV[1]: the max permits
+-- ARGV[2]: the wanted permits
+-- ARGV[3]: the min permits, fail if can't acquire enough permits
+-- ARGV[4]: the lease's id
+-- ARGV[5]: the lease's expire time (millisecond)
+-- return the acquired permits, 0 means failed
+redis.replicate_commands()
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local expire = tonumber(ARGV[5])
+local dead = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', now - 1)
+for i = 1, #dead do
+    redis.call('HDEL', KEYS[1], dead[i])
+    redis.call('ZREM', KEYS[2], dead[i])
+end
+local used = 0
+local permits = redis.call('HVALS', KEYS[1])
+for i = 1, #permits do
+    used = used + tonumber(permits[i])
+end
+local avail = tonumber(ARGV[1]) - used
+if avail < tonumber(ARGV[3]) then
+    return 0
+end
+local grant = math.min(tonumber(ARGV[2]), avail)
+redis.call('HINCRBY', KEYS[1], ARGV[4], grant)
+redis.call('ZADD', KEYS[2], now + expire, ARGV[4])
+redis.call('PEXPIRE', KEYS[1], expire)
+redis.call('PEXPIRE', KEYS[2], expire)
+return grant
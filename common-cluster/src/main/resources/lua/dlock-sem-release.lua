@@ -0,0 +1,14 @@
+-- KEYS[1]: the semaphore, which is a hash of every lease's permits
+-- KEYS[2]: the leases of semaphore, which is a zset of every lease's deadline
+-- ARGV[1]: the lease's id
+-- ARGV[2]: the released permits
+-- ARGV[3]: the unlock notification's channel
+-- ARGV[4]: the unlock notification's message
+-- return the left permits of this lease
+local left = redis.call('HINCRBY', KEYS[1], ARGV[1], -tonumber(ARGV[2]))
+if left <= 0 then
+    redis.call('HDEL', KEYS[1], ARGV[1])
+    redis.call('ZREM', KEYS[2], ARGV[1])
+end
+redis.call('PUBLISH', ARGV[3], ARGV[4])
+return math.max(left, 0)
@@ -0,0 +1,15 @@
+-- KEYS[1]: the semaphore, which is a hash of every lease's permits
+-- KEYS[2]: the leases of semaphore, which is a zset of every lease's deadline
+-- ARGV[1]: the lease's id
+-- ARGV[2]: the lease's expire time (millisecond)
+-- return 1 if renewed, 0 means the lease was lost
+redis.replicate_commands()
+if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+    return 0
+end
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+redis.call('ZADD', KEYS[2], now + tonumber(ARGV[2]), ARGV[1])
+redis.call('PEXPIRE', KEYS[1], ARGV[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[2])
+return 1
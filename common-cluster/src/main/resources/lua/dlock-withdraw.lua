@@ -0,0 +1,39 @@
+-- KEYS: the lock keys
+-- ARGV[1]: the writer's token
+-- ARGV[2]: the length of keys' prefix, which won't be published
+-- ARGV[3...]: the unlock notification's channel of every key
+-- delete the writer's pending mark `#writer:token` after it gave up,
+-- and notify the waiting readers if no other writer is pending.
+redis.replicate_commands()
+local WRITER = '#writer:'
+local offset = tonumber(ARGV[2]) + 1
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local channels = {}
+local messages = {}
+local count = 0
+for i = 1, #KEYS do
+    if redis.pcall('HDEL', KEYS[i], WRITER .. ARGV[1]) == 1 then
+        count = count + 1
+        local pending = false
+        local fields = redis.call('HGETALL', KEYS[i])
+        for j = 1, #fields, 2 do
+            if string.sub(fields[j], 1, #WRITER) == WRITER and tonumber(fields[j + 1]) >= now then
+                pending = true
+            end
+        end
+        if not pending then
+            local channel = ARGV[i + 2]
+            if messages[channel] == nil then
+                channels[#channels + 1] = channel
+                messages[channel] = {}
+            end
+            local message = messages[channel]
+            message[#message + 1] = string.sub(KEYS[i], offset)
+        end
+    end
+end
+for i = 1, #channels do
+    redis.call('PUBLISH', channels[i], table.concat(messages[channels[i]], ','))
+end
+return count
@@ -0,0 +1,69 @@
+package com.github.sisyphsu.common.cluster.cid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * test the free/stale index of nodeIDs
+ *
+ * @author sulin
+ * @since 2019-05-24 10:12:40
+ */
+public class ClusterIDIndexTest {
+
+    @Test
+    public void testFree() {
+        List<ClusterIDNode> nodes = Arrays.asList(node(0, 100, true), node(1, 100, true), node(3, 100, true));
+        ClusterIDIndex index = new ClusterIDIndex(4, nodes);
+        assertEquals(2, index.nextFree(0));
+        assertEquals(2, index.nextFree(2));
+        // wrap around to 0
+        assertEquals(2, index.nextFree(3));
+        assertEquals(Collections.singletonList(2), index.probeFree(5, 8));
+        assertTrue(index.coldest(8).isEmpty());
+    }
+
+    @Test
+    public void testFull() {
+        List<ClusterIDNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            nodes.add(node(i, 100, true));
+        }
+        ClusterIDIndex index = new ClusterIDIndex(4, nodes);
+        assertEquals(-1, index.nextFree(0));
+        assertEquals(-1, index.nextFree(3));
+        assertTrue(index.probeFree(0, 8).isEmpty());
+    }
+
+    @Test
+    public void testReuse() {
+        // the released nodes still exist but unlocked, they are reused by timestamp
+        List<ClusterIDNode> nodes = Arrays.asList(node(0, 300, false), node(1, 100, true), node(2, 200, false), node(3, 100, false));
+        ClusterIDIndex index = new ClusterIDIndex(4, nodes);
+        assertEquals(-1, index.nextFree(0));
+        assertEquals(Arrays.asList(3, 2, 0), index.coldest(8));
+        assertEquals(Arrays.asList(3, 2), index.coldest(2));
+    }
+
+    @Test
+    public void testBounds() {
+        // the nodes out of range are ignored, which may be created by bigger bitNum
+        List<ClusterIDNode> nodes = Arrays.asList(node(-1, 100, false), node(4, 100, false), node(1, 100, true));
+        ClusterIDIndex index = new ClusterIDIndex(4, nodes);
+        assertTrue(index.coldest(8).isEmpty());
+        assertEquals(0, index.nextFree(0));
+        assertEquals(Arrays.asList(2, 3, 0), index.probeFree(2, 8));
+        assertEquals(Arrays.asList(2, 3), index.probeFree(6, 2));
+    }
+
+    private static ClusterIDNode node(int id, long timestamp, boolean locked) {
+        return new ClusterIDNode(id, timestamp, locked, locked ? 1 : 0);
+    }
+
+}
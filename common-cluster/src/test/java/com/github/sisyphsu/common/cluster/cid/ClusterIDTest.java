@@ -4,8 +4,14 @@ import com.github.sisyphsu.common.cluster.SpringBaseTest;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
 import org.junit.Test;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
 /**
  * test clusterID
  *
@@ -27,6 +33,56 @@ public class ClusterIDTest extends SpringBaseTest {
         log.info("clusterID: {}", clusterID.get());
     }
 
+    @Test
+    public void testListNodes() throws Exception {
+        ClusterIDImpl impl = (ClusterIDImpl) clusterID;
+        int nodeID = impl.get();
+        long sessionId = curatorFramework.getZookeeperClient().getZooKeeper().getSessionId();
+        log.info("clusterID: {}", nodeID);
+
+        // the cache is updated by watches, wait for the lock's arrival
+        ClusterIDNode self = null;
+        for (int i = 0; i < 50 && (self == null || !self.isLocked()); i++) {
+            Thread.sleep(100);
+            self = impl.listNodes().stream().filter(node -> node.getId() == nodeID).findFirst().orElse(null);
+        }
+        assertNotNull(self);
+        assertTrue(self.isLocked());
+        assertEquals(sessionId, self.getOwner());
+
+        List<ClusterIDNode> nodes = impl.listNodes();
+        for (ClusterIDNode node : nodes) {
+            log.info("node: {}", node);
+        }
+        try {
+            nodes.add(self);
+            fail("listNodes should be read-only");
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+
+    @Test
+    public void testLease() throws InterruptedException {
+        ClusterIDImpl id = new ClusterIDImpl(curatorFramework, properties);
+        ClusterIDLease lease = id.awaitLease(10000);
+        log.info("lease: {}", lease);
+        assertSame(lease, id.getLease());
+        id.close();
+        assertNotEquals(lease.getEpoch(), id.getLease().getEpoch());
+    }
+
+    @Test
+    public void testClose() {
+        ClusterIDImpl id = new ClusterIDImpl(curatorFramework, properties);
+        int nodeID = id.get();
+        id.close();
+        log.info("closed nodeID: {}", nodeID);
+
+        ClusterIDImpl id2 = new ClusterIDImpl(curatorFramework, properties);
+        log.info("id2: {}", id2.get());
+        id2.close();
+    }
+
     @Test
     public void testMulti() {
         properties.setBitNum(4);
@@ -40,4 +96,29 @@ public class ClusterIDTest extends SpringBaseTest {
         log.info("id: {}", id.get());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSessionSticky() throws Exception {
+        File stickyFile = File.createTempFile("clusterid", ".sticky");
+        assertTrue(stickyFile.delete());
+        ClusterIDProperties props = new ClusterIDProperties();
+        BeanUtils.copyProperties(properties, props);
+        props.setHeartbeat(ClusterIDHeartbeat.SESSION);
+        props.setStickyFile(stickyFile.getAbsolutePath());
+
+        // the sticky file should be saved right after acquired, not after the session's flush interval
+        ClusterIDImpl id = new ClusterIDImpl(curatorFramework, props);
+        int nodeID = id.get();
+        assertTrue(stickyFile.exists());
+        id.close();
+
+        // restart in the session's flush interval
+        ClusterIDImpl id2 = new ClusterIDImpl(curatorFramework, props);
+        try {
+            assertEquals(nodeID, id2.get());
+        } finally {
+            id2.close();
+            stickyFile.delete();
+        }
+    }
+
+}
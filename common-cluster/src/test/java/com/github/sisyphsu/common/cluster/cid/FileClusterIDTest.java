@@ -0,0 +1,135 @@
+package com.github.sisyphsu.common.cluster.cid;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * test file-lock's clusterID
+ *
+ * @author sulin
+ * @since 2019-05-10 11:05:23
+ */
+@Slf4j
+public class FileClusterIDTest {
+
+    private static final String DIR = System.getProperty("java.io.tmpdir") + "/clusterid-test";
+
+    @Test
+    public void testMulti() {
+        List<FileClusterIDImpl> ids = new ArrayList<>();
+        Set<Integer> values = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            FileClusterIDImpl id = new FileClusterIDImpl(DIR, 2);
+            assertTrue(values.add(id.get()));
+            ids.add(id);
+        }
+        try {
+            new FileClusterIDImpl(DIR, 2);
+            fail("slots should be exhausted");
+        } catch (IllegalStateException e) {
+            log.info("exhausted: {}", e.getMessage());
+        }
+        ids.remove(0).close();
+        FileClusterIDImpl id = new FileClusterIDImpl(DIR, 2);
+        log.info("reuse slot: {}", id.get());
+        id.close();
+        ids.forEach(FileClusterIDImpl::close);
+    }
+
+    @Test
+    public void testProcessLock() throws Exception {
+        Path dir = Files.createTempDirectory("clusterid-process");
+        FileClusterIDImpl id1 = new FileClusterIDImpl(dir.toString(), 2);
+        FileClusterIDImpl id2 = new FileClusterIDImpl(dir.toString(), 2);
+        try {
+            assertNotEquals(id1.get(), id2.get());
+            // the second instance mustn't drop the first one's lock, which belongs to the whole process
+            String file1 = dir.resolve("slot-" + id1.get() + ".lock").toString();
+            String file2 = dir.resolve("slot-" + id2.get() + ".lock").toString();
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    FileClusterIDTest.class.getName(), file1, file2).inheritIO().start();
+            assertTrue(child.waitFor(30, TimeUnit.SECONDS));
+            assertEquals("the slots should be still locked", 0, child.exitValue());
+        } finally {
+            id1.close();
+            id2.close();
+        }
+    }
+
+    /**
+     * Run in the child process of {@link #testProcessLock()}, exit with 0 if all files are locked by other process
+     *
+     * @param args slot files
+     * @throws IOException io failed
+     */
+    public static void main(String[] args) throws IOException {
+        for (String file : args) {
+            try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE)) {
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    System.exit(1);
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    @Test
+    public void testHostPrefix() {
+        ClusterIDLeaseHolder hostLease = new ClusterIDLeaseHolder();
+        hostLease.update(ClusterIDStatus.LOCK, 3);
+        ClusterID host = new ClusterID() {
+            @Override
+            public int getBitNum() {
+                return 8;
+            }
+
+            @Override
+            public int get() {
+                return 3;
+            }
+
+            @Override
+            public ClusterIDStatus getStatus() {
+                return ClusterIDStatus.LOCK;
+            }
+
+            @Override
+            public ClusterIDLease getLease() {
+                return hostLease.get();
+            }
+        };
+        FileClusterIDImpl id = new FileClusterIDImpl(DIR, 2, host);
+        assertEquals(10, id.getBitNum());
+        assertEquals(3, id.get() >> 2);
+
+        // the lease follows the host's change, and its epoch increases after every change
+        ClusterIDLease lease = id.getLease();
+        assertEquals(id.get(), lease.getNodeID());
+        hostLease.update(ClusterIDStatus.LOCK, 5);
+        ClusterIDLease newLease = id.getLease();
+        assertEquals(5, newLease.getNodeID() >> 2);
+        assertTrue(newLease.getEpoch() > lease.getEpoch());
+        id.close();
+        assertEquals(ClusterIDStatus.NONE, id.getLease().getStatus());
+        assertTrue(id.getLease().getEpoch() > newLease.getEpoch());
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.github.sisyphsu.common.cluster.cid;
+
+import com.github.sisyphsu.common.cluster.SpringBaseTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * test redis's clusterID
+ *
+ * @author sulin
+ * @since 2019-05-09 17:12:35
+ */
+@Slf4j
+public class RedisClusterIDTest extends SpringBaseTest {
+
+    @Autowired
+    private StringRedisTemplate template;
+    @Autowired
+    private ClusterIDProperties properties;
+
+    @Test
+    public void testID() {
+        RedisClusterIDImpl id = new RedisClusterIDImpl(template, properties);
+        log.info("clusterID: {}", id.get());
+        id.close();
+    }
+
+    @Test
+    public void testMulti() {
+        ClusterIDProperties props = new ClusterIDProperties();
+        BeanUtils.copyProperties(properties, props);
+        props.setBitNum(4);
+        List<RedisClusterIDImpl> ids = new ArrayList<>();
+        try {
+            for (int i = 0; i < 16; i++) {
+                RedisClusterIDImpl id = new RedisClusterIDImpl(template, props);
+                ids.add(id);
+                log.info("id: {}", id.get());
+            }
+        } finally {
+            ids.forEach(RedisClusterIDImpl::close);
+        }
+    }
+
+}
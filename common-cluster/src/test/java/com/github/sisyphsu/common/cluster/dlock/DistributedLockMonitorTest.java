@@ -0,0 +1,48 @@
+package com.github.sisyphsu.common.cluster.dlock;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * test dlock monitor's waiter registry, without redis
+ *
+ * @author sulin
+ * @since 2019-05-17 10:12:45
+ */
+public class DistributedLockMonitorTest {
+
+    private final DistributedLockMonitor monitor = new DistributedLockMonitor("#dlock:sync", 4, null, () -> null);
+
+    @Test
+    public void testNotify() throws InterruptedException {
+        List<String> keys = Arrays.asList("a", "b");
+        DistributedLockWaiter waiter = new DistributedLockWaiter(Thread.currentThread());
+        monitor.addListener(keys, waiter);
+
+        // unrelated key won't wake up the waiter
+        monitor.notifyUnlock(Collections.singletonList("c"));
+        assertFalse(waiter.await(System.currentTimeMillis() + 50));
+
+        new Thread(() -> monitor.notifyUnlock(Collections.singletonList("b"))).start();
+        assertTrue(waiter.await(System.currentTimeMillis() + 3000));
+
+        // the removed waiter won't be signaled any more
+        waiter.reset();
+        monitor.delListener(keys, waiter);
+        monitor.notifyUnlock(keys);
+        assertFalse(waiter.isSignaled());
+    }
+
+    @Test
+    public void testChannel() {
+        assertTrue(monitor.channelOf("a").startsWith("#dlock:sync:"));
+        assertEquals(monitor.channelOf("a"), monitor.channelOf("a"));
+        assertEquals("#dlock:sync", new DistributedLockMonitor("#dlock:sync", () -> null).channelOf("a"));
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.github.sisyphsu.common.cluster.dlock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * test dlock's local queue
+ *
+ * @author sulin
+ * @since 2019-05-15 15:36:20
+ */
+@Slf4j
+public class DistributedLockQueueTest {
+
+    private final List<String> released = new ArrayList<>();
+    private final DistributedLockQueue queue = new DistributedLockQueue(released::addAll);
+
+    @Test
+    public void testHandoff() {
+        List<String> keys = Arrays.asList("a", "b");
+        Object owner1 = new Object();
+        Object owner2 = new Object();
+        assertTrue(queue.tryAcquire(keys, owner1));
+        assertEquals(keys, queue.unheld(keys));
+        queue.markHeld(keys, Long.MAX_VALUE);
+        assertFalse(queue.tryAcquire(keys, owner2));
+
+        // no waiter, all keys need to be released in redis
+        queue.release(keys, owner1);
+        assertEquals(keys, released);
+        assertTrue(queue.heldKeys().isEmpty());
+    }
+
+    @Test
+    public void testReleaseByOthers() {
+        List<String> keys = Arrays.asList("a", "b");
+        Object owner = new Object();
+        assertTrue(queue.tryAcquire(Collections.singletonList("b"), owner));
+        assertTrue(queue.tryAcquire(Collections.singletonList("a"), this));
+        queue.markHeld(keys, Long.MAX_VALUE);
+
+        // nothing is released if some key is held by another owner
+        try {
+            queue.release(keys, owner);
+            fail("the key held by others shouldn't be released");
+        } catch (IllegalMonitorStateException e) {
+            log.info("release failed: {}", e.getMessage());
+        }
+        assertEquals(keys, queue.heldKeys());
+        queue.release(Collections.singletonList("b"), owner);
+        assertEquals(Collections.singletonList("b"), released);
+    }
+
+    @Test
+    public void testWaiter() throws InterruptedException {
+        List<String> keys = Collections.singletonList("key");
+        Object owner = new Object();
+        assertTrue(queue.tryAcquire(keys, owner));
+        queue.markHeld(keys, Long.MAX_VALUE);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger result = new AtomicInteger();
+        Thread thread = new Thread(() -> {
+            latch.countDown();
+            if (queue.acquire(keys, Thread.currentThread(), System.currentTimeMillis() + 3000)) {
+                result.set(queue.unheld(keys).size() + 1);
+            }
+        });
+        thread.start();
+        latch.await();
+        Thread.sleep(100);
+
+        // the waiter takes over the key directly
+        queue.release(keys, owner);
+        assertTrue(released.isEmpty());
+        thread.join();
+        assertEquals(1, result.get());
+        assertEquals(keys, queue.heldKeys());
+    }
+
+    @Test
+    public void testTimeout() {
+        List<String> keys = Collections.singletonList("key");
+        assertTrue(queue.tryAcquire(keys, this));
+        long start = System.currentTimeMillis();
+        assertFalse(queue.acquire(keys, new Object(), start + 100));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        queue.release(keys, this);
+        assertTrue(released.isEmpty());
+    }
+
+    @Test
+    public void testReentrant() {
+        List<String> keys = Arrays.asList("a", "b");
+        Object owner = new Object();
+        assertTrue(queue.tryAcquire(keys, owner));
+        queue.markHeld(keys, Long.MAX_VALUE);
+
+        // the owner acquires again, partly overlapped
+        assertTrue(queue.tryAcquire(Arrays.asList("b", "c"), owner));
+        assertEquals(Collections.singletonList("c"), queue.unheld(Arrays.asList("b", "c")));
+        queue.markHeld(Collections.singletonList("c"), Long.MAX_VALUE);
+        assertFalse(queue.tryAcquire(keys, new Object()));
+
+        // the inner release only frees the key held once
+        queue.release(Arrays.asList("b", "c"), owner);
+        assertEquals(Collections.singletonList("c"), released);
+        assertEquals(keys, sorted(queue.heldKeys()));
+
+        queue.release(keys, owner);
+        assertEquals(Arrays.asList("c", "a", "b"), released);
+        assertTrue(queue.heldKeys().isEmpty());
+    }
+
+    private static List<String> sorted(List<String> keys) {
+        Collections.sort(keys);
+        return keys;
+    }
+
+    @Test
+    public void testRenew() {
+        List<String> keys = Arrays.asList("a", "b");
+        Object owner = new Object();
+        assertTrue(queue.tryAcquire(keys, owner));
+        queue.markHeld(Collections.singletonList("a"), 1000);
+        queue.markHeld(Collections.singletonList("b"), 5000);
+        assertEquals(Collections.singletonList("a"), new ArrayList<>(queue.expiringKeys(2000).keySet()));
+
+        queue.renewed(Collections.singletonList("a"), 6000);
+        assertTrue(queue.expiringKeys(2000).isEmpty());
+
+        // the lost key won't be renewed or released in redis
+        Map<String, Long> expiring = queue.expiringKeys(Long.MAX_VALUE);
+        assertEquals(Collections.singletonList("b"), queue.lost(Collections.singletonMap("b", expiring.get("b"))));
+        assertEquals(Collections.singletonList("a"), new ArrayList<>(queue.expiringKeys(Long.MAX_VALUE).keySet()));
+        queue.release(keys, owner);
+        assertEquals(Collections.singletonList("a"), released);
+    }
+
+    @Test
+    public void testLostAfterRelock() {
+        List<String> keys = Collections.singletonList("a");
+        Object owner1 = new Object();
+        Object owner2 = new Object();
+        assertTrue(queue.tryAcquire(keys, owner1));
+        queue.markHeld(keys, 1000);
+        Map<String, Long> expiring = queue.expiringKeys(2000);
+
+        // released and locked again by a new owner before the renewal's result came back
+        queue.release(keys, owner1);
+        assertTrue(queue.tryAcquire(keys, owner2));
+        queue.markHeld(keys, 6000);
+        assertTrue(queue.lost(expiring).isEmpty());
+        assertEquals(keys, queue.heldKeys());
+        queue.release(keys, owner2);
+    }
+
+    @Test
+    public void testAffinity() {
+        DistributedLockQueue affinityQueue = new DistributedLockQueue(released::addAll, 60000);
+        List<String> keys = Arrays.asList("a", "b");
+        Object owner = new Object();
+        assertTrue(affinityQueue.tryAcquire(keys, owner));
+        affinityQueue.markHeld(keys, Long.MAX_VALUE);
+
+        // the released keys are parked, and could be acquired again without redis
+        affinityQueue.release(keys, owner);
+        assertTrue(released.isEmpty());
+        assertTrue(affinityQueue.tryAcquire(keys, owner));
+        assertTrue(affinityQueue.unheld(keys).isEmpty());
+
+        // other node is interested in the key in use, it will be released in redis after unlock
+        affinityQueue.unpark(Collections.singletonList("a"));
+        affinityQueue.release(keys, owner);
+        assertEquals(Collections.singletonList("a"), released);
+
+        // the parked key is released right away after interest or expiration
+        affinityQueue.unpark(Collections.singletonList("b"));
+        assertEquals(keys, released);
+        affinityQueue.expireParked(Long.MAX_VALUE);
+        assertEquals(keys, released);
+        assertTrue(affinityQueue.heldKeys().isEmpty());
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        List<String> keys = Arrays.asList("a", "b");
+        Object owner = new Object();
+        assertTrue(queue.tryAcquire(Collections.singletonList("b"), owner));
+        queue.markHeld(Collections.singletonList("b"), Long.MAX_VALUE);
+
+        // wait "b" without thread, then take it over after release
+        Object asyncOwner = new Object();
+        CompletableFuture<Boolean> future = queue.acquireAsync(keys, asyncOwner, System.currentTimeMillis() + 3000);
+        assertFalse(future.isDone());
+        queue.release(Collections.singletonList("b"), owner);
+        assertTrue(future.get());
+        assertTrue(released.isEmpty());
+
+        // timeout, the waiter should be removed
+        CompletableFuture<Boolean> timeout = queue.acquireAsync(keys, new Object(), System.currentTimeMillis() + 100);
+        assertFalse(timeout.get());
+        queue.release(keys, asyncOwner);
+        assertEquals(Collections.singletonList("b"), released);
+    }
+
+    @Test
+    public void testFairHandoff() throws Exception {
+        DistributedLockQueue fairQueue = new DistributedLockQueue(released::addAll, 0, false);
+        List<String> keys = Collections.singletonList("key");
+        Object owner = new Object();
+        assertTrue(fairQueue.tryAcquire(keys, owner));
+        fairQueue.markHeld(keys, Long.MAX_VALUE);
+
+        // the local waiter takes over the key, but it must be locked in redis again
+        Object waiter = new Object();
+        CompletableFuture<Boolean> future = fairQueue.acquireAsync(keys, waiter, System.currentTimeMillis() + 3000);
+        fairQueue.release(keys, owner);
+        assertTrue(future.get());
+        assertEquals(keys, released);
+        assertEquals(keys, fairQueue.unheld(keys));
+        fairQueue.release(keys, waiter);
+        assertEquals(keys, released);
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.github.sisyphsu.common.cluster.dlock;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * test dlock's local readers
+ *
+ * @author sulin
+ * @since 2019-05-20 16:05:41
+ */
+public class DistributedLockSharesTest {
+
+    private final DistributedLockShares shares = new DistributedLockShares("token");
+
+    @Test
+    public void testShare() {
+        List<String> keys = Arrays.asList("a", "b");
+        Map<String, String> fields = shares.acquire(keys);
+        assertEquals(keys.size(), fields.size());
+        shares.markHeld(fields.keySet(), Long.MAX_VALUE);
+
+        // the second reader needn't access redis
+        assertTrue(shares.acquire(Collections.singletonList("a")).isEmpty());
+        assertTrue(shares.release(Collections.singletonList("a")).isEmpty());
+
+        // the last reader releases the fields
+        assertEquals(fields, shares.release(keys));
+        assertTrue(shares.expiringKeys(Long.MAX_VALUE).isEmpty());
+
+        // the next reader uses a new field
+        Map<String, String> newFields = shares.acquire(keys);
+        assertNotEquals(fields.get("a"), newFields.get("a"));
+    }
+
+    @Test
+    public void testRenew() {
+        List<String> keys = Collections.singletonList("a");
+        Map<String, String> fields = shares.acquire(keys);
+        shares.markHeld(fields.keySet(), 1000);
+        assertEquals(fields, shares.expiringKeys(2000));
+
+        shares.renewed(keys, 5000);
+        assertTrue(shares.expiringKeys(2000).isEmpty());
+
+        // the lost key needn't be released, but the next reader will register it again
+        shares.lost(keys);
+        assertTrue(shares.expiringKeys(Long.MAX_VALUE).isEmpty());
+        assertEquals(fields, shares.acquire(keys));
+        shares.release(keys);
+        assertTrue(shares.release(keys).isEmpty());
+    }
+
+    @Test
+    public void testGate() {
+        List<String> keys = Arrays.asList("a", "b");
+        // only the held keys could be gated
+        shares.gate(keys, Long.MAX_VALUE);
+        Map<String, String> fields = shares.acquire(keys);
+        assertFalse(shares.isGated(keys));
+
+        shares.markHeld(fields.keySet(), Long.MAX_VALUE);
+        shares.gate(Collections.singletonList("b"), Long.MAX_VALUE);
+        assertTrue(shares.isGated(keys));
+        assertFalse(shares.isGated(Collections.singletonList("a")));
+
+        // the gate is opened after the writer got the lock or gave up
+        assertTrue(shares.hasGate());
+        shares.ungate(Collections.singletonList("b"));
+        assertFalse(shares.isGated(keys));
+        assertFalse(shares.hasGate());
+
+        // the gate is dropped after the current readers left
+        shares.gate(keys, Long.MAX_VALUE);
+        shares.release(keys);
+        assertFalse(shares.isGated(keys));
+        assertFalse(shares.hasGate());
+        shares.acquire(keys);
+        assertFalse(shares.isGated(keys));
+    }
+
+    @Test
+    public void testRollback() {
+        List<String> keys = Arrays.asList("a", "b");
+        Map<String, String> fields = shares.acquire(keys);
+        // the concurrent reader shares the field of `a` before it was held
+        Map<String, String> otherFields = shares.acquire(Collections.singletonList("a"));
+        assertEquals(fields.get("a"), otherFields.get("a"));
+
+        Map<String, String> removed = new HashMap<>();
+        shares.rollback(fields, removed::putAll);
+        assertEquals(Collections.singletonMap("b", fields.get("b")), removed);
+
+        // the held field is released by the last reader instead of rollback
+        shares.markHeld(otherFields.keySet(), Long.MAX_VALUE);
+        shares.release(Collections.singletonList("a"));
+        removed.clear();
+        shares.rollback(fields, removed::putAll);
+        assertFalse(removed.containsKey("a"));
+    }
+
+}
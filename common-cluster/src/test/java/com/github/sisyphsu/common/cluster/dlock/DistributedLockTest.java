@@ -6,10 +6,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -76,4 +79,93 @@ public class DistributedLockTest extends SpringBaseTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void tryLockAll() {
+        List<List<String>> keyGroups = Arrays.asList(
+                Arrays.asList("sku:1", "sku:2"),
+                Arrays.asList("sku:3"),
+                Arrays.asList("sku:4", "sku:5")
+        );
+        List<Boolean> results = dlock.tryLockAll(keyGroups);
+        try {
+            log.info("tryLockAll: {}", results);
+            assert !results.contains(false);
+        } finally {
+            dlock.unlockAll(keyGroups);
+        }
+    }
+
+    @Test
+    public void lockLargeKeys() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add("cart:sku:" + i);
+        }
+        assert dlock.lock(keys, 3000);
+        dlock.unlock(keys);
+    }
+
+    @Test
+    public void runInSharedLock() throws Exception {
+        List<String> keys = Arrays.asList("user:1001", "order:100000001");
+        assert dlock.lockShared(keys, 3000);
+        try {
+            // other readers could share it, but the writer can't
+            dlock.runInSharedLock(keys, () -> {
+                System.out.println("do query");
+                return null;
+            });
+            assert !dlock.tryLock(keys);
+        } finally {
+            dlock.unlockShared(keys);
+        }
+        assert dlock.tryLock(keys);
+        dlock.unlock(keys);
+    }
+
+    @Test
+    public void semaphore() {
+        DistributedSemaphore semaphore = dlock.getSemaphore("export", 2);
+        assert semaphore.acquire(1, 3000);
+        assert semaphore.tryAcquire(1);
+        assert !semaphore.tryAcquire(1);
+        semaphore.release(2);
+        assert semaphore.tryAcquire(2);
+        semaphore.release(2);
+    }
+
+    @Test
+    public void rateLimiter() {
+        DistributedRateLimiter limiter = dlock.getRateLimiter("sms", 10, 10);
+        int count = 0;
+        while (limiter.tryAcquire(1)) {
+            count++;
+        }
+        log.info("rate limiter's burst: {}", count);
+        assert count <= 10;
+        assert limiter.acquire(1, 1000);
+    }
+
+    @Test
+    public void lockAsync() throws Exception {
+        List<String> keys = Arrays.asList("user:1001", "order:100000001");
+        LockHandle handle = dlock.lockAsync(keys, 3000).get();
+        try {
+            CompletableFuture<LockHandle> waiting = dlock.lockAsync(keys, 100);
+            try {
+                waiting.get();
+                assert false;
+            } catch (ExecutionException e) {
+                assert e.getCause() instanceof TimeoutException;
+            }
+        } finally {
+            handle.unlock();
+        }
+        String result = dlock.runInLockAsync(keys, 3000, () -> CompletableFuture.completedFuture("done")).get();
+        assert "done".equals(result);
+        try (LockHandle ignored = dlock.lockReactive(keys, 3000).block()) {
+            System.out.println("do business");
+        }
+    }
+
+}